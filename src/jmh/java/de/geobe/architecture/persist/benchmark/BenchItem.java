@@ -0,0 +1,85 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist.benchmark;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Version;
+
+/**
+ * Simple versioned entity used by all benchmarks
+ *
+ * @author georg beier
+ */
+@Entity
+@Table(indexes = @Index(columnList = "name"))
+public class BenchItem {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE)
+    private Long id;
+    @Version
+    private Integer version;
+    private String name;
+    private int amount;
+
+    public BenchItem() {
+    }
+
+    public BenchItem(String name, int amount) {
+        this.name = name;
+        this.amount = amount;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist.benchmark;
+
+import de.geobe.architecture.persist.DaoHibernate;
+import de.geobe.architecture.persist.DbHibernate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Opens the in-memory benchmark database and fills it with test data
+ *
+ * @author georg beier
+ */
+class BenchmarkDatabase {
+
+    static final String CONFIGURATION = "benchmark.cfg.xml";
+    static final int PAGE_SIZE = 1000;
+
+    final DbHibernate dbHibernate;
+    final DaoHibernate<BenchItem> dao;
+
+    /**
+     * open a new database, tables are created empty
+     */
+    BenchmarkDatabase() {
+        dbHibernate = new DbHibernate(Collections.singletonList(BenchItem.class.getName()), CONFIGURATION);
+        dao = new DaoHibernate<>(BenchItem.class, dbHibernate);
+    }
+
+    /**
+     * insert rows objects with distinct names and cyclic amounts in batches
+     *
+     * @param rows number of objects
+     * @return id of the first object inserted
+     */
+    long populate(int rows) {
+        dao.saveAll(IntStream.range(0, rows).mapToObj(BenchmarkDatabase::item), PAGE_SIZE, 10);
+        dao.commit();
+        List<Object> first = dao.find("select min(id) from " + BenchItem.class.getName());
+        dao.closeSession();
+        return (Long) first.get(0);
+    }
+
+    /**
+     * drops all tables and releases the database
+     */
+    void close() {
+        dbHibernate.closeDatabase();
+    }
+
+    static BenchItem item(int i) {
+        return new BenchItem(name(i), i % 100);
+    }
+
+    static String name(int i) {
+        return "item" + i;
+    }
+}
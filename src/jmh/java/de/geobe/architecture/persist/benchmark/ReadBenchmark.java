@@ -0,0 +1,146 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist.benchmark;
+
+import de.geobe.architecture.persist.DaoHibernate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Read operations of DaoHibernate on databases of increasing size.
+ * Every operation runs in its own session, like a typical unit of work.
+ *
+ * @author georg beier
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadBenchmark {
+
+    @Benchmark
+    public BenchItem fetch(PopulatedDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            return dao.fetch(data.firstId + data.randomIndex());
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    public List<Object> findWithParams(PopulatedDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            return dao.find("from " + BenchItem.class.getName() + " where name = :name",
+                    Collections.singletonMap("name", BenchmarkDatabase.name(data.randomIndex())));
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    public List<BenchItem> findByExample(PopulatedDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            return dao.findByExample(new BenchItem(BenchmarkDatabase.name(data.randomIndex()), 0));
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    /**
+     * read one page in the middle of the table with offset based paging
+     */
+    @Benchmark
+    public List<BenchItem> iteratePagesMiddle(PopulatedDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            return dao.iteratePages(BenchmarkDatabase.PAGE_SIZE, data.rows / 2).next();
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    /**
+     * read the same page as {@link #iteratePagesMiddle(PopulatedDatabase)} with keyset paging
+     */
+    @Benchmark
+    public List<BenchItem> iteratePagesByKeyMiddle(PopulatedDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            return dao.iteratePagesByKey(BenchmarkDatabase.PAGE_SIZE, null,
+                    "id >= " + (data.firstId + data.rows / 2)).next();
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void iterateAll(PopulatedDatabase data, Blackhole blackhole) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            Iterator<BenchItem> iterator = dao.iterateAll();
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void iterateAllPages(PopulatedDatabase data, Blackhole blackhole) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            Iterator<List<BenchItem>> iterator = dao.iteratePagesByKey(BenchmarkDatabase.PAGE_SIZE);
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void streamAll(PopulatedDatabase data, Blackhole blackhole) {
+        try (Stream<BenchItem> stream = data.database.dao.streamAll()) {
+            stream.forEach(blackhole::consume);
+        }
+    }
+}
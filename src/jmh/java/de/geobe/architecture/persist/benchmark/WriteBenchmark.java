@@ -0,0 +1,142 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist.benchmark;
+
+import de.geobe.architecture.persist.DaoHibernate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Write operations of DaoHibernate. Save benchmarks report the time per saved object,
+ * so single and batched saves can be compared directly.
+ *
+ * @author georg beier
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteBenchmark {
+
+    private static final int BATCH = 1000;
+
+    /**
+     * a database that grows while objects are saved
+     */
+    @State(Scope.Benchmark)
+    public static class EmptyDatabase {
+        BenchmarkDatabase database;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            database = new BenchmarkDatabase();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            database.close();
+        }
+    }
+
+    /**
+     * a database that is filled again before every call of deleteAll
+     */
+    @State(Scope.Benchmark)
+    public static class DeletableDatabase {
+        @Param({"10000", "100000", "1000000"})
+        public int rows;
+
+        BenchmarkDatabase database;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            database = new BenchmarkDatabase();
+        }
+
+        @Setup(Level.Invocation)
+        public void populate() {
+            database.populate(rows);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            database.close();
+        }
+    }
+
+    @Benchmark
+    public boolean saveSingle(EmptyDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            dao.save(BenchmarkDatabase.item(0));
+            return dao.commit();
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public boolean saveBatched(EmptyDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        List<BenchItem> items = IntStream.range(0, BATCH)
+                .mapToObj(BenchmarkDatabase::item)
+                .collect(Collectors.toList());
+        try {
+            dao.saveAll(items, 50);
+            return dao.commit();
+        } finally {
+            dao.closeSession();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void deleteAll(DeletableDatabase data) {
+        DaoHibernate<BenchItem> dao = data.database.dao;
+        try {
+            dao.deleteAll();
+            dao.commit();
+        } finally {
+            dao.closeSession();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous companion of {@link DaoHibernate}. Every call is a unit of work that runs in its own
+ * thread, session and transaction. The transaction is committed at the end of the unit of work, so
+ * there is no separate commit. Returned objects are detached.<br>
+ * Virtual threads are used, if the java runtime supports them. At most as many units of work run
+ * at the same time as the connection pool holds connections, all others wait.
+ * So independent lookups can run concurrently.
+ *
+ * @param <PersistType> a persisted type that is handled by this dao
+ * @author georg beier
+ */
+public class AsyncDaoHibernate<PersistType> {
+
+    private final DbHibernate dbHibernate;
+    private final DaoHibernate<PersistType> dao;
+
+    /**
+     * create new asynchronous Dao object
+     *
+     * @param persistType The class of the PersistType
+     * @param dbac        The Hibernate database access object
+     */
+    public AsyncDaoHibernate(Class<?> persistType, DbHibernate dbac) {
+        dbHibernate = dbac;
+        dao = new DaoHibernate<>(persistType, dbac);
+    }
+
+    /**
+     * fetch object by its key property
+     *
+     * @param id key property of object
+     * @return future of the object or of null if not found
+     * @see DaoHibernate#fetch(Serializable)
+     */
+    public CompletableFuture<PersistType> fetch(Serializable id) {
+        return unitOfWork(() -> dao.fetch(id));
+    }
+
+    /**
+     * execute hibernate query
+     *
+     * @param query simple HQL query string
+     * @return future of the list of returned objects
+     * @see DaoHibernate#find(String)
+     */
+    public CompletableFuture<List<Object>> find(String query) {
+        return unitOfWork(() -> dao.find(query));
+    }
+
+    /**
+     * execute hibernate query with parameters
+     *
+     * @param query  HQL query string containing named parameters in hibernate
+     *               style (e.g. :name)
+     * @param params map of actual parameters with parameter name as key (without :)
+     * @return future of the list of returned objects
+     * @see DaoHibernate#find(String, Map)
+     */
+    public CompletableFuture<List<Object>> find(String query, Map<String, Object> params) {
+        return unitOfWork(() -> dao.find(query, params));
+    }
+
+    /**
+     * Query by example.
+     *
+     * @param sample a sample object
+     * @return future of the list of objects that conform to sample in all not null properties
+     * @see DaoHibernate#findByExample(Object)
+     */
+    public CompletableFuture<List<PersistType>> findByExample(PersistType sample) {
+        return unitOfWork(() -> dao.findByExample(sample));
+    }
+
+    /**
+     * Query by example.
+     *
+     * @param sample   a sample object
+     * @param excluded properties not considered im matching
+     * @return future of the list of objects that conform to sample in all not null properties
+     * @see DaoHibernate#findByExample(Object, Collection)
+     */
+    public CompletableFuture<List<PersistType>> findByExample(PersistType sample, Collection<String> excluded) {
+        return unitOfWork(() -> dao.findByExample(sample, excluded));
+    }
+
+    /**
+     * save object and commit immediately
+     *
+     * @param obj object to be saved
+     * @return future of true if successful, of false if obj was stale and is refreshed
+     * @see DaoHibernate#save(Object)
+     */
+    public CompletableFuture<Boolean> save(PersistType obj) {
+        return unitOfWork(() -> dao.save(obj) && dao.commit());
+    }
+
+    /**
+     * run any unit of work with the synchronous dao of the worker thread, e.g. several
+     * operations that must share one transaction. Transaction is committed after work is done.
+     *
+     * @param work unit of work
+     * @param <R>  type of result
+     * @return future of the result of work
+     */
+    public <R> CompletableFuture<R> submit(Function<DaoHibernate<PersistType>, R> work) {
+        return unitOfWork(() -> work.apply(dao));
+    }
+
+    /**
+     * run work in a new session and transaction of a worker thread. Transaction is committed if work
+     * finishes normally, rolled back otherwise. Session is always closed.
+     *
+     * @param work unit of work
+     * @param <R>  type of result
+     * @return future of the result of work
+     */
+    private <R> CompletableFuture<R> unitOfWork(Supplier<R> work) {
+        return dbHibernate.getAsyncExecutor().submit(() -> {
+            Session s = dbHibernate.getActiveSession();
+            try {
+                R result = work.get();
+                Transaction t = s.getTransaction();
+                if (s.isOpen() && t.isActive()) {
+                    t.commit();
+                }
+                return result;
+            } catch (RuntimeException rex) {
+                if (s.isOpen() && s.getTransaction().isActive()) {
+                    s.getTransaction().rollback();
+                }
+                throw rex;
+            } finally {
+                dbHibernate.closeSession();
+            }
+        });
+    }
+}
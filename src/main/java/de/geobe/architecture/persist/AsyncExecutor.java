@@ -0,0 +1,265 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs units of work of a database asynchronously. Virtual threads are used, if the java runtime
+ * supports them, otherwise a cached pool of daemon threads. The number of units of work running at
+ * the same time is limited, so they don't compete for more connections than the pool holds.
+ * Work beyond that limit waits in a queue and is only handed to a thread when a permit is free,
+ * so waiting work never occupies a thread.
+ *
+ * @author georg beier
+ */
+class AsyncExecutor {
+
+    /**
+     * how long close waits for submitted work to complete
+     */
+    static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Queue<Unit<?>> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ThreadLocal<Boolean> working = new ThreadLocal<>();
+    private volatile boolean closed;
+
+    /**
+     * @param maxConcurrent maximum number of units of work running at the same time
+     */
+    AsyncExecutor(int maxConcurrent) {
+        executor = newExecutor();
+        permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * run work asynchronously, as soon as a permit is available
+     *
+     * @param work a unit of work
+     * @param <R>  type of result
+     * @return a future that is completed with the result of work or its exception
+     */
+    <R> CompletableFuture<R> submit(Supplier<R> work) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new RejectedExecutionException("async executor is closed"));
+            return result;
+        }
+        pending.incrementAndGet();
+        waiting.add(new Unit<>(work, result));
+        dispatch();
+        return result;
+    }
+
+    /**
+     * Run a side task of the calling thread at once in its own thread, without a permit. The caller
+     * waits for the side task, e.g. the other stage of a pipeline, so the side task must not wait
+     * for a permit the caller may hold itself.
+     *
+     * @param work a side task
+     * @param <R>  type of result
+     * @return a future that is completed with the result of work or its exception
+     */
+    <R> CompletableFuture<R> fork(Supplier<R> work) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new RejectedExecutionException("async executor is closed"));
+            return result;
+        }
+        pending.incrementAndGet();
+        Unit<R> unit = new Unit<>(work, result);
+        try {
+            executor.execute(() -> {
+                try {
+                    unit.run();
+                } finally {
+                    done();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+            done();
+        }
+        return result;
+    }
+
+    /**
+     * A unit of work holds a permit until it returns. If it waits for other units, they may never
+     * get a permit, so it must do their work itself.
+     *
+     * @return true if the calling thread runs a unit of work of this executor
+     */
+    boolean isWorker() {
+        return working.get() != null;
+    }
+
+    /**
+     * @return the executor running the units of work
+     */
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * stop accepting new work, submitted work is completed within {@link #CLOSE_TIMEOUT}
+     */
+    void close() {
+        close(CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Stop accepting new work and wait until submitted work is completed. Work that did not start
+     * before the timeout is dropped, its future is cancelled.
+     *
+     * @param timeout maximum time to wait for submitted work
+     */
+    void close(Duration timeout) {
+        closed = true;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            synchronized (pending) {
+                long remaining;
+                while (pending.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            Unit<?> dropped;
+            while ((dropped = waiting.poll()) != null) {
+                dropped.result.cancel(false);
+                done();
+            }
+        }
+    }
+
+    /**
+     * hand waiting work to the executor as long as permits are available
+     */
+    private void dispatch() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Unit<?> unit = waiting.poll();
+            if (unit == null) {
+                permits.release();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    working.set(Boolean.TRUE);
+                    try {
+                        unit.run();
+                    } finally {
+                        working.remove();
+                        permits.release();
+                        done();
+                        dispatch();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                unit.result.completeExceptionally(ex);
+                permits.release();
+                done();
+            }
+        }
+    }
+
+    /**
+     * count one unit of work as completed and wake up a waiting close
+     */
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor is called by reflection, because the library is still
+     * compiled for older java versions.
+     *
+     * @return an executor that starts a new thread for every task
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "easyHibernate-async-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * a unit of work waiting for a permit, together with the future of its result
+     *
+     * @param <R> type of result
+     */
+    private static class Unit<R> implements Runnable {
+        private final Supplier<R> work;
+        private final CompletableFuture<R> result;
+
+        Unit(Supplier<R> work, CompletableFuture<R> result) {
+            this.work = work;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(work.get());
+            } catch (Throwable ex) {
+                result.completeExceptionally(new CompletionException(ex));
+            }
+        }
+    }
+}
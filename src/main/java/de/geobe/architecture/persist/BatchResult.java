@@ -0,0 +1,94 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of one batch written by {@link DaoHibernate#saveAll(Iterable, int, int)}.
+ * A batch is a group of objects that were flushed to the database together.
+ *
+ * @param <PersistType> a persisted type that is handled by the dao
+ * @author georg beier
+ */
+public class BatchResult<PersistType> {
+
+    private final int batch;
+    private final int size;
+    private final List<PersistType> stale;
+    private final boolean rolledBack;
+
+    BatchResult(int batch, int size, List<PersistType> stale, boolean rolledBack) {
+        this.batch = batch;
+        this.size = size;
+        this.stale = Collections.unmodifiableList(stale);
+        this.rolledBack = rolledBack;
+    }
+
+    /**
+     * @return index of this batch, starting at 0
+     */
+    public int getBatch() {
+        return batch;
+    }
+
+    /**
+     * @return number of objects in this batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return objects of this batch that are "stale" (i.e. object was
+     * changed by another thread or process)
+     */
+    public List<PersistType> getStale() {
+        return stale;
+    }
+
+    /**
+     * @return true if writing this batch failed and the transaction was rolled back.
+     * All objects saved since the last commit are lost in this case.
+     */
+    public boolean isRolledBack() {
+        return rolledBack;
+    }
+
+    /**
+     * @return true if all objects of the batch were written and none was stale
+     */
+    public boolean isSuccessful() {
+        return !rolledBack && stale.isEmpty();
+    }
+
+    public String toString() {
+        return "(batch: " + batch + ", size: " + size + ", stale: " + stale.size()
+                + (rolledBack ? ", rolled back" : "") + ")";
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.AvailableSettings;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.persistence.SharedCacheMode;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in configuration of hibernate's second level cache and query cache, held in memory
+ * of the running process. Every persistent class gets its own cache region, bounded by a maximum
+ * number of entries and a time to live. When a region is full, Ehcache evicts entries by its own
+ * heap eviction policy.<br>
+ * Which classes are cached is decided by the JPA annotation @Cacheable, unless all classes are
+ * cached. Hibernate keeps the caches consistent with all changes made through DaoHibernate
+ * objects, including bulk deletes. Changes made by other processes are only seen after entries
+ * expired. Hit and miss counters are available from {@link DbHibernate#getCacheStatistics()}
+ * while hibernate statistics are on.
+ * <pre>
+ *     CacheConfiguration caching = new CacheConfiguration(10_000, Duration.ofMinutes(10))
+ *             .region(Country.class, 500, Duration.ofHours(12));
+ *     DbHibernate db = new DbHibernate(fqcns, "", caching);
+ * </pre>
+ *
+ * @author georg beier
+ */
+public class CacheConfiguration implements DbSettings {
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Limits defaultLimits;
+    private final Map<String, Limits> regionLimits = new HashMap<>();
+    private Limits queryResultLimits;
+    private boolean cacheAll = false;
+    private CacheManager cacheManager;
+    private final List<String> cacheNames = new ArrayList<>();
+
+    /**
+     * create configuration with limits for all regions
+     *
+     * @param maxEntries maximum number of objects held in a cache region
+     * @param timeToLive time after which an object is removed from a cache region
+     */
+    public CacheConfiguration(long maxEntries, Duration timeToLive) {
+        defaultLimits = new Limits(maxEntries, timeToLive);
+        queryResultLimits = defaultLimits;
+    }
+
+    /**
+     * set individual limits for the cache region of a persistent class
+     *
+     * @param persistType a persistent class
+     * @param maxEntries  maximum number of objects held in the cache region
+     * @param timeToLive  time after which an object is removed from the cache region
+     * @return this configuration
+     */
+    public CacheConfiguration region(Class<?> persistType, long maxEntries, Duration timeToLive) {
+        regionLimits.put(persistType.getName(), new Limits(maxEntries, timeToLive));
+        return this;
+    }
+
+    /**
+     * set limits for the region of the query result cache
+     *
+     * @param maxEntries maximum number of query results held in the cache region
+     * @param timeToLive time after which a query result is removed from the cache region
+     * @return this configuration
+     */
+    public CacheConfiguration queryResults(long maxEntries, Duration timeToLive) {
+        queryResultLimits = new Limits(maxEntries, timeToLive);
+        return this;
+    }
+
+    /**
+     * cache all persistent classes, not only classes annotated with @Cacheable
+     *
+     * @param cacheAll true to cache all persistent classes
+     * @return this configuration
+     */
+    public CacheConfiguration cacheAll(boolean cacheAll) {
+        this.cacheAll = cacheAll;
+        return this;
+    }
+
+    /**
+     * create the cache regions and provide settings to use them
+     *
+     * @param fqcns fully qualified class names of all persistent classes
+     * @return hibernate settings for second level and query cache
+     */
+    @Override
+    public Map<String, Object> settings(List<String> fqcns) {
+        cacheManager = Caching.getCachingProvider(EhcacheCachingProvider.class.getName()).getCacheManager();
+        // region names of different DbHibernate objects must not collide in the shared cache manager
+        String prefix = "easyHibernate" + instances.incrementAndGet();
+        fqcns.forEach(fqcn -> createCache(prefix + "." + fqcn, regionLimits.getOrDefault(fqcn, defaultLimits)));
+        createCache(prefix + "." + RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME, queryResultLimits);
+        // timestamps decide if query results are still valid, so they never expire
+        createCache(prefix + "." + RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME,
+                Math.max(fqcns.size() * 16L, 1024L), ExpiryPolicyBuilder.noExpiration());
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+        settings.put(AvailableSettings.USE_QUERY_CACHE, true);
+        settings.put(AvailableSettings.CACHE_REGION_FACTORY, ConfigSettings.SIMPLE_FACTORY_NAME);
+        settings.put(AvailableSettings.CACHE_REGION_PREFIX, prefix);
+        settings.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+        settings.put(ConfigSettings.MISSING_CACHE_STRATEGY, "create");
+        settings.put(AvailableSettings.JPA_SHARED_CACHE_MODE,
+                cacheAll ? SharedCacheMode.ALL : SharedCacheMode.ENABLE_SELECTIVE);
+        settings.put(AvailableSettings.DEFAULT_CACHE_CONCURRENCY_STRATEGY, "read-write");
+        return settings;
+    }
+
+    /**
+     * remove the cache regions of the closed DbHibernate object
+     */
+    @Override
+    public void close() {
+        if (cacheManager != null && !cacheManager.isClosed()) {
+            cacheNames.forEach(cacheManager::destroyCache);
+        }
+        cacheNames.clear();
+    }
+
+    private void createCache(String name, Limits limits) {
+        createCache(name, limits.maxEntries, ExpiryPolicyBuilder.timeToLiveExpiration(limits.timeToLive));
+    }
+
+    private void createCache(String name, long maxEntries, ExpiryPolicy<Object, Object> expiry) {
+        if (cacheManager.getCache(name) != null) {
+            cacheManager.destroyCache(name);
+        }
+        cacheManager.createCache(name, Eh107Configuration.fromEhcacheCacheConfiguration(
+                CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                        ResourcePoolsBuilder.heap(maxEntries))
+                        .withExpiry(expiry)));
+        cacheNames.add(name);
+    }
+
+    /**
+     * size and time limits of a cache region
+     */
+    private static class Limits {
+        private final long maxEntries;
+        private final Duration timeToLive;
+
+        Limits(long maxEntries, Duration timeToLive) {
+            this.maxEntries = maxEntries;
+            this.timeToLive = timeToLive;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Background poller of the changes of a persistent class, e.g. to keep a search index or another
+ * system up to date. A background thread reads all changes since the last poll with
+ * {@link DaoHibernate#changesSince(Watermark, int)} in pages of pageSize objects and passes every
+ * page to a listener, then waits for interval. The watermark only moves on after the listener
+ * returned, so a page is delivered again, if the listener failed. The listener is called in the
+ * background thread, objects are detached after it returned.
+ * <pre>
+ *     ChangeFeed&lt;Order&gt; feed = new ChangeFeed&lt;&gt;(Order.class, db, Watermark.start("modified"),
+ *             500, Duration.ofSeconds(10), (orders, watermark) -&gt; index.update(orders));
+ * </pre>
+ *
+ * @param <PersistType> a persisted type that is handled by this feed
+ * @author georg beier
+ */
+public class ChangeFeed<PersistType> implements AutoCloseable {
+
+    /**
+     * receives the changes of a persistent class
+     *
+     * @param <PersistType> a persisted type
+     */
+    @FunctionalInterface
+    public interface Listener<PersistType> {
+        /**
+         * @param changes   changed objects in order of change attribute and id
+         * @param watermark position after the last of the changes, to be stored for a restart
+         */
+        void changed(List<PersistType> changes, Watermark watermark);
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final Logger logger = LogManager.getLogger(ChangeFeed.class);
+
+    private final DbHibernate dbHibernate;
+    private final DaoHibernate<PersistType> dao;
+    private final int pageSize;
+    private final Listener<PersistType> listener;
+    private final ScheduledExecutorService poller;
+    private final Runnable closeHook = this::close;
+    private volatile Thread pollerThread;
+    private volatile Watermark watermark;
+    private volatile Consumer<RuntimeException> failureHandler = ex -> logger.error("change feed poll failed", ex);
+
+    /**
+     * create a change feed and start its background thread
+     *
+     * @param persistType The class of the PersistType
+     * @param dbac        The Hibernate database access object
+     * @param from        watermark to start from
+     * @param pageSize    maximum number of changes passed to the listener at once
+     * @param interval    time between the end of a poll and the start of the next
+     * @param listener    receives all changes
+     * @throws IllegalArgumentException if pageSize or interval is not positive
+     */
+    public ChangeFeed(Class<?> persistType, DbHibernate dbac, Watermark from, int pageSize, Duration interval,
+                      Listener<PersistType> listener) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        dbHibernate = dbac;
+        dao = new DaoHibernate<PersistType>(persistType, dbac).readOnly();
+        this.pageSize = pageSize;
+        this.listener = listener;
+        watermark = from;
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "easyHibernate-changeFeed-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            pollerThread = thread;
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollChanges, 0, interval.toNanos(), TimeUnit.NANOSECONDS);
+        dbac.onClose(closeHook);
+    }
+
+    /**
+     * read all changes now and wait until the listener got them. Does nothing after close.
+     */
+    public void poll() {
+        Future<?> done;
+        try {
+            done = poller.submit(this::pollChanges);
+        } catch (RejectedExecutionException ex) {
+            return;
+        }
+        try {
+            done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("polling change feed failed", ex.getCause());
+        }
+    }
+
+    /**
+     * @return position after the last change the listener got
+     */
+    public Watermark getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * set handler for failures of reading changes or of the listener. The failed page is read again
+     * at the next poll. The handler is called in the background thread. By default, failures
+     * are logged as error, setting a handler replaces this logging.
+     *
+     * @param failureHandler called with the cause
+     */
+    public void setFailureHandler(Consumer<RuntimeException> failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * stop the background thread after a running poll. Is called automatically
+     * by {@link DbHibernate#closeDatabase()}. When called by the listener, the feed stops
+     * after the current poll without waiting for it.
+     */
+    @Override
+    public void close() {
+        dbHibernate.removeOnClose(closeHook);
+        poller.shutdown();
+        if (Thread.currentThread() == pollerThread) {
+            // waiting for the running poll would wait for the caller itself
+            return;
+        }
+        try {
+            poller.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * read pages of changes until all are seen, each page in its own session.
+     * Runs in the background thread.
+     */
+    private void pollChanges() {
+        try {
+            ChangeSet<PersistType> changes;
+            do {
+                changes = dao.changesSince(watermark, pageSize);
+                if (!changes.getObjects().isEmpty()) {
+                    listener.changed(changes.getObjects(), changes.getWatermark());
+                    watermark = changes.getWatermark();
+                }
+                dbHibernate.closeSession();
+            } while (changes.hasMore() && !poller.isShutdown());
+        } catch (RuntimeException rex) {
+            dbHibernate.closeSession();
+            try {
+                failureHandler.accept(rex);
+            } catch (RuntimeException ex) {
+                logger.error("change feed failure handler failed", ex);
+            }
+        }
+    }
+}
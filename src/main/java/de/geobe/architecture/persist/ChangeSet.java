@@ -0,0 +1,75 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of changed objects read by {@link DaoHibernate#changesSince(Watermark, int)},
+ * together with the watermark to read the next page from.
+ *
+ * @param <PersistType> a persisted type that is handled by the dao
+ * @author georg beier
+ */
+public class ChangeSet<PersistType> {
+
+    private final List<PersistType> objects;
+    private final Watermark watermark;
+    private final boolean more;
+
+    ChangeSet(List<PersistType> objects, Watermark watermark, boolean more) {
+        this.objects = Collections.unmodifiableList(objects);
+        this.watermark = watermark;
+        this.more = more;
+    }
+
+    /**
+     * @return changed objects in order of change attribute and id
+     */
+    public List<PersistType> getObjects() {
+        return objects;
+    }
+
+    /**
+     * @return watermark after the last object of this page, the given watermark if the page is empty
+     */
+    public Watermark getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return true if the page is full, so more changes may be waiting
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+    public String toString() {
+        return "(changes: " + objects.size() + ", " + watermark + (more ? ", more" : "") + ")";
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Two stage pipelines between a channel and a thread that encodes or decodes rows. The stages are
+ * coupled by a bounded queue, so a slow stage throttles the other and memory consumption stays
+ * constant. Channels are read and written through direct buffers that are pooled and reused
+ * by all pipelines. Channels are never closed by a pipeline.
+ *
+ * @author georg beier
+ */
+class ChannelPipeline {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 8;
+    private static final int CHUNK_SIZE = 256;
+    private static final Object END = new Object();
+    private static final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(4 * QUEUE_CAPACITY);
+
+    /**
+     * writes rows to an output stream
+     */
+    interface Encoder {
+        /**
+         * @param out stream that is closed after encode returns
+         * @return number of encoded rows
+         */
+        long encode(OutputStream out) throws IOException;
+    }
+
+    /**
+     * reads rows from an input stream
+     *
+     * @param <T> type of objects decoded from the rows
+     */
+    interface Decoder<T> {
+        /**
+         * @param in   stream that is closed after decode returns
+         * @param sink receives all decoded objects
+         */
+        void decode(InputStream in, Consumer<T> sink) throws IOException;
+    }
+
+    private ChannelPipeline() {
+    }
+
+    /**
+     * encode rows in another thread and write them to a channel in the calling thread
+     *
+     * @param executor runs the encoder as side task, so it needs no permit
+     * @param channel  a blocking channel
+     * @param encoder  encodes all rows
+     * @return number of rows the encoder wrote
+     */
+    static long write(AsyncExecutor executor, WritableByteChannel channel, Encoder encoder) {
+        Handoff handoff = new Handoff();
+        CompletableFuture<Long> producer = executor.fork(() -> {
+            try (BufferOutputStream out = new BufferOutputStream(handoff)) {
+                return encoder.encode(out);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                handoff.end();
+            }
+        });
+        handoff.endWith(producer);
+        try {
+            for (Object item = handoff.take(); item != END; item = handoff.take()) {
+                ByteBuffer buffer = (ByteBuffer) item;
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } finally {
+                    release(buffer);
+                }
+            }
+            return join(producer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            handoff.cancel();
+        }
+    }
+
+    /**
+     * read a channel and decode rows in another thread, hand the decoded objects to the calling thread
+     *
+     * @param executor runs the decoder as side task, so it needs no permit
+     * @param channel  a blocking channel
+     * @param decoder  decodes all rows
+     * @param <T>      type of decoded objects
+     * @return a stream of decoded objects that must be closed, if it is not read to the end
+     */
+    static <T> Stream<T> read(AsyncExecutor executor, ReadableByteChannel channel, Decoder<T> decoder) {
+        Handoff handoff = new Handoff();
+        CompletableFuture<Void> producer = executor.fork(() -> {
+            ChunkSink<T> sink = new ChunkSink<>(handoff);
+            try (ChannelInputStream in = new ChannelInputStream(channel)) {
+                decoder.decode(in, sink);
+                sink.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                handoff.end();
+            }
+            return null;
+        });
+        handoff.endWith(producer);
+        Iterator<T> objects = new Iterator<T>() {
+            private Iterator<T> current = null;
+            private boolean ended = false;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext() {
+                while (!ended && (current == null || !current.hasNext())) {
+                    Object item = handoff.take();
+                    if (item == END) {
+                        ended = true;
+                        join(producer);
+                    } else {
+                        current = ((List<T>) item).iterator();
+                    }
+                }
+                return !ended;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(objects, Spliterator.ORDERED), false)
+                .onClose(handoff::cancel);
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void release(ByteBuffer buffer) {
+        bufferPool.offer(buffer);
+    }
+
+    /**
+     * wait for the producer stage and rethrow its exception
+     */
+    private static <R> R join(CompletableFuture<R> producer) {
+        try {
+            return producer.join();
+        } catch (CompletionException cex) {
+            if (cex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) cex.getCause();
+            }
+            throw cex;
+        }
+    }
+
+    /**
+     * bounded queue between producing and consuming stage. Both stages block on the queue. The
+     * producer always ends with END, so the consumer can't wait forever, and a stopping consumer
+     * empties the queue, so the producer can't wait forever. Buffers that are dropped on the way
+     * are returned to the pool.
+     */
+    private static class Handoff {
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile boolean cancelled = false;
+
+        /**
+         * called by the producer, waits while the queue is full
+         *
+         * @throws CancellationException if the consumer stopped
+         */
+        void put(Object item) {
+            if (cancelled) {
+                discard(item);
+                throw new CancellationException("consumer stopped");
+            }
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                discard(item);
+                throw new CancellationException("interrupted");
+            }
+            if (cancelled) {
+                // consumer stopped while the producer was waiting, nobody will take the item
+                drain();
+                throw new CancellationException("consumer stopped");
+            }
+        }
+
+        /**
+         * called by the producer when it is done, successfully or not
+         */
+        void end() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * make sure the consumer gets END, even if the producer never ran, e.g. because its
+         * executor was closed. Never blocks, END was already put if the queue is full.
+         */
+        void endWith(CompletableFuture<?> producer) {
+            producer.whenComplete((result, ex) -> queue.offer(END));
+        }
+
+        /**
+         * called by the consumer, waits while the queue is empty
+         *
+         * @return next item or END, when the producer is done
+         */
+        Object take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new CancellationException("interrupted");
+            }
+        }
+
+        /**
+         * called by the consumer when it stops, wakes up a waiting producer
+         */
+        void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            Object item;
+            while ((item = queue.poll()) != null) {
+                discard(item);
+            }
+        }
+
+        private static void discard(Object item) {
+            if (item instanceof ByteBuffer) {
+                release((ByteBuffer) item);
+            }
+        }
+    }
+
+    /**
+     * hands decoded objects in chunks to the consuming stage, so the queue is not passed for every object
+     */
+    private static class ChunkSink<T> implements Consumer<T> {
+        private final Handoff handoff;
+        private List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+
+        ChunkSink(Handoff handoff) {
+            this.handoff = handoff;
+        }
+
+        @Override
+        public void accept(T object) {
+            chunk.add(object);
+            if (chunk.size() == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!chunk.isEmpty()) {
+                handoff.put(chunk);
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+    }
+
+    /**
+     * fills pooled direct buffers and hands them to the consuming stage
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final Handoff handoff;
+        private ByteBuffer buffer = acquire();
+
+        BufferOutputStream(Handoff handoff) {
+            this.handoff = handoff;
+        }
+
+        @Override
+        public void write(int b) {
+            if (!buffer.hasRemaining()) {
+                handOver();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    handOver();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (buffer != null && buffer.position() > 0) {
+                handOver();
+            }
+            if (buffer != null) {
+                release(buffer);
+                buffer = null;
+            }
+        }
+
+        private void handOver() {
+            buffer.flip();
+            ByteBuffer full = buffer;
+            buffer = null;
+            handoff.put(full);
+            buffer = acquire();
+        }
+    }
+
+    /**
+     * reads a channel through a pooled direct buffer
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final ReadableByteChannel channel;
+        private ByteBuffer buffer = acquire();
+
+        ChannelInputStream(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (buffer != null) {
+                release(buffer);
+                buffer = null;
+            }
+        }
+
+        /**
+         * @return false at end of channel
+         */
+        private boolean fill() throws IOException {
+            while (!buffer.hasRemaining()) {
+                buffer.clear();
+                int n = channel.read(buffer);
+                buffer.flip();
+                if (n < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in connection pool for production use, replacing hibernate's built in pool that is not
+ * meant for production. Url, user, password and driver are taken from the hibernate configuration
+ * file, so switching to the pool needs no other changes. The pool size also limits the number of
+ * parallel asynchronous units of work.<br>
+ * The pool measures how long threads wait for connections and counts connection timeouts. Current
+ * figures are available from {@link DbHibernate#getPoolSnapshot()}.
+ * <pre>
+ *     ConnectionPool pool = new ConnectionPool(16)
+ *             .minimumIdle(4)
+ *             .connectionTimeout(Duration.ofSeconds(5));
+ *     DbHibernate db = new DbHibernate(fqcns, "", pool);
+ * </pre>
+ *
+ * @author georg beier
+ */
+public class ConnectionPool implements DbSettings {
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final HikariConfig config = new HikariConfig();
+    private final LatencyHistogram wait = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private HikariDataSource dataSource;
+
+    /**
+     * create pool configuration
+     *
+     * @param maximumPoolSize maximum number of open connections
+     */
+    public ConnectionPool(int maximumPoolSize) {
+        if (maximumPoolSize < 1) {
+            throw new IllegalArgumentException("pool size must be positive: " + maximumPoolSize);
+        }
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setPoolName("easyHibernate-pool" + instances.incrementAndGet());
+        config.setAutoCommit(false);
+    }
+
+    /**
+     * set the number of idle connections the pool tries to keep open. Default is the maximum pool size.
+     *
+     * @param minimumIdle minimum number of idle connections
+     * @return this configuration
+     */
+    public ConnectionPool minimumIdle(int minimumIdle) {
+        config.setMinimumIdle(minimumIdle);
+        return this;
+    }
+
+    /**
+     * set how long a thread waits for a connection before the request fails. Default is 30 seconds.
+     *
+     * @param timeout maximum wait time, at least 250 ms
+     * @return this configuration
+     */
+    public ConnectionPool connectionTimeout(Duration timeout) {
+        config.setConnectionTimeout(timeout.toMillis());
+        return this;
+    }
+
+    /**
+     * set how long a connection may take to be validated. Default is 5 seconds.
+     *
+     * @param timeout maximum validation time, less than the connection timeout
+     * @return this configuration
+     */
+    public ConnectionPool validationTimeout(Duration timeout) {
+        config.setValidationTimeout(timeout.toMillis());
+        return this;
+    }
+
+    /**
+     * set a query that validates connections before they are handed out. Only needed for
+     * old drivers that do not support JDBC4 Connection.isValid().
+     *
+     * @param query e.g. "select 1"
+     * @return this configuration
+     */
+    public ConnectionPool connectionTestQuery(String query) {
+        config.setConnectionTestQuery(query);
+        return this;
+    }
+
+    /**
+     * set how long a connection may stay idle before it is closed. Default is 10 minutes.
+     *
+     * @param timeout maximum idle time
+     * @return this configuration
+     */
+    public ConnectionPool idleTimeout(Duration timeout) {
+        config.setIdleTimeout(timeout.toMillis());
+        return this;
+    }
+
+    /**
+     * set how long a connection lives before it is replaced. Should be shorter than any
+     * connection time limit of the database. Default is 30 minutes.
+     *
+     * @param lifetime maximum lifetime of a connection
+     * @return this configuration
+     */
+    public ConnectionPool maxLifetime(Duration lifetime) {
+        config.setMaxLifetime(lifetime.toMillis());
+        return this;
+    }
+
+    /**
+     * enable the prepared statement cache of the JDBC driver. Uses the property names of
+     * MySQL and MariaDB drivers, other drivers must be configured with
+     * {@link #dataSourceProperty(String, Object)}, as unknown properties may be rejected.
+     *
+     * @param size     number of prepared statements cached per connection
+     * @param sqlLimit maximum length of a cached sql statement
+     * @return this configuration
+     */
+    public ConnectionPool statementCache(int size, int sqlLimit) {
+        config.addDataSourceProperty("cachePrepStmts", true);
+        config.addDataSourceProperty("prepStmtCacheSize", size);
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", sqlLimit);
+        return this;
+    }
+
+    /**
+     * pass a property to the JDBC driver
+     *
+     * @param name  driver specific property name
+     * @param value property value
+     * @return this configuration
+     */
+    public ConnectionPool dataSourceProperty(String name, Object value) {
+        config.addDataSourceProperty(name, value);
+        return this;
+    }
+
+    /**
+     * get the current figures of the pool
+     *
+     * @return a snapshot of the pool figures
+     * @throws IllegalStateException if the pool was not started by a DbHibernate object
+     */
+    public PoolSnapshot getSnapshot() {
+        if (dataSource == null) {
+            throw new IllegalStateException("connection pool is not started");
+        }
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return new PoolSnapshot(pool.getActiveConnections(), pool.getIdleConnections(),
+                pool.getTotalConnections(), pool.getThreadsAwaitingConnection(),
+                timeouts.sum(), wait, usage);
+    }
+
+    /**
+     * start the pool with the connection settings of the configuration file
+     *
+     * @param fqcns fully qualified class names of all persistent classes
+     * @return hibernate settings to use the pool
+     */
+    @Override
+    public Map<String, Object> settings(List<String> fqcns) {
+        return settings(fqcns, Collections.emptyMap());
+    }
+
+    /**
+     * start the pool with the connection settings of the configuration file
+     *
+     * @param fqcns      fully qualified class names of all persistent classes
+     * @param configured settings from the configuration file
+     * @return hibernate settings to use the pool
+     */
+    @Override
+    public Map<String, Object> settings(List<String> fqcns, Map<?, ?> configured) {
+        if (dataSource != null) {
+            throw new IllegalStateException("connection pool is already used by another DbHibernate object");
+        }
+        Object url = configured.get(AvailableSettings.URL);
+        if (url == null) {
+            throw new IllegalStateException("no " + AvailableSettings.URL + " configured for connection pool");
+        }
+        config.setJdbcUrl(url.toString());
+        Optional.ofNullable(configured.get(AvailableSettings.USER)).ifPresent(u -> config.setUsername(u.toString()));
+        Optional.ofNullable(configured.get(AvailableSettings.PASS)).ifPresent(p -> config.setPassword(p.toString()));
+        Optional.ofNullable(configured.get(AvailableSettings.DRIVER))
+                .ifPresent(d -> config.setDriverClassName(d.toString()));
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new Tracker());
+        dataSource = new HikariDataSource(config);
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(AvailableSettings.CONNECTION_PROVIDER, new PooledConnectionProvider(dataSource));
+        settings.put(AvailableSettings.POOL_SIZE, String.valueOf(config.getMaximumPoolSize()));
+        settings.put(AvailableSettings.CONNECTION_PROVIDER_DISABLES_AUTOCOMMIT, true);
+        return settings;
+    }
+
+    /**
+     * close all connections of the pool
+     */
+    @Override
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
+    /**
+     * hands out connections of the pool to hibernate. Credentials belong to the pool, so
+     * hibernate's DatasourceConnectionProviderImpl cannot be used, it would ask for connections
+     * of the configured user which hikari does not support.
+     */
+    @SuppressWarnings("serial")
+    private static class PooledConnectionProvider implements ConnectionProvider {
+        private final HikariDataSource dataSource;
+
+        PooledConnectionProvider(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return dataSource.getConnection();
+        }
+
+        @Override
+        public void closeConnection(Connection connection) throws SQLException {
+            connection.close();
+        }
+
+        @Override
+        public boolean supportsAggressiveRelease() {
+            return false;
+        }
+
+        /**
+         * hibernate declares the parameter as raw Class, so it can't be overridden with Class&lt;?&gt;
+         */
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean isUnwrappableAs(Class unwrapType) {
+            Class<?> type = unwrapType;
+            return type.isAssignableFrom(PooledConnectionProvider.class)
+                    || type.isAssignableFrom(HikariDataSource.class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T unwrap(Class<T> unwrapType) {
+            if (unwrapType.isAssignableFrom(PooledConnectionProvider.class)) {
+                return (T) this;
+            } else if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+                return (T) dataSource;
+            }
+            throw new UnknownUnwrapTypeException(unwrapType);
+        }
+    }
+
+    /**
+     * receives pool events from hikari
+     */
+    private class Tracker implements IMetricsTracker {
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            wait.record(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+            usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+    }
+}
@@ -27,20 +27,29 @@
 package de.geobe.architecture.persist;
 
 import org.hibernate.*;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.query.Query;
 
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
-import javax.persistence.metamodel.Attribute;
-import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Tuple;
 import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Dao implementation for Hibernate 5.x persistence layer
@@ -51,8 +60,20 @@ import java.util.stream.Collectors;
  */
 public class DaoHibernate<PersistType> {
 
+    /**
+     * rows fetched at once from the database when streaming
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /**
+     * maximum number of ids in one IN condition of bulk statements
+     */
+    public static final int DEFAULT_IN_SIZE = 1000;
+
     private Class<?> accessedType;
     private DbHibernate dbHibernate;
+    private final DbHibernateGroup group;
+    private final boolean readOnly;
 
     /**
      * create new Dao object
@@ -63,40 +84,91 @@ public class DaoHibernate<PersistType> {
      * @param dbac        The Hibernate database access object
      */
     public DaoHibernate(Class<?> persistType, DbHibernate dbac) {
+        this(persistType, dbac, null, false);
+    }
+
+    /**
+     * create new Dao object that reads and writes on the primary database of a group.
+     * Its {@link #readOnly() read only view} reads from the replicas of the group.
+     *
+     * @param persistType The class of the PersistType
+     * @param group       primary database and read replicas
+     * @see DbHibernateGroup
+     */
+    public DaoHibernate(Class<?> persistType, DbHibernateGroup group) {
+        this(persistType, group.getPrimary(), group, false);
+    }
+
+    private DaoHibernate(Class<?> persistType, DbHibernate dbac, DbHibernateGroup group, boolean readOnly) {
         accessedType = persistType;
         dbHibernate = dbac;
+        this.group = group;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * get a read only view of this dao for read heavy code paths. Objects loaded by the view are
+     * read only, so hibernate keeps no snapshots for dirty checking, and its queries never flush
+     * the session automatically. Objects that were already loaded by the session before keep their
+     * state. The view shares session and transaction with all other daos of this thread.
+     * Write operations of the view throw an IllegalStateException. If this dao belongs to
+     * a {@link DbHibernateGroup}, the view reads from its replicas.
+     *
+     * @return a read only dao for PersistType
+     */
+    public DaoHibernate<PersistType> readOnly() {
+        return readOnly ? this : new DaoHibernate<>(accessedType, dbHibernate, group, true);
+    }
+
+    /**
+     * @return true if this dao can not write, because it is a read only view or its database
+     * is read only
+     */
+    public boolean isReadOnly() {
+        return readOnly || dbHibernate.isReadOnly();
     }
 
     /**
      * commits a transaction on all daos in this thread that are linked to the
-     * same dbHibernate. Causes a transaction rollback if commit fails.
+     * same dbHibernate. Transactions of other threads are not affected.
+     * Causes a transaction rollback if commit fails.
      * @return true if successful, false if at least one object is "stale" (i.e. object was
      * changed by another thread or process)
      */
     public boolean commit() {
-        Session s = dbHibernate.getActiveSession();
-        Transaction t = s.getTransaction();
-        try {
-            if (t != null) {
-                t.commit();
+        return measured("commit", probe -> {
+            Session s = dbHibernate.getActiveSession();
+            Transaction t = s.getTransaction();
+            try {
+                if (t != null) {
+                    t.commit();
+                }
+                return true;
+            } catch (RuntimeException ex) {
+                if (isStale(ex)) {
+                    probe.stale(1);
+                } else {
+                    probe.failed();
+                }
+                t.rollback();
+                return false;
             }
-            return true;
-        } catch (RuntimeException ex) {
-            t.rollback();
-            return false;
-        }
+        });
     }
 
     /**
      * performs a rollback on all daos in this thread that are linked to the
-     * same dbAccess object which implies to the same session
+     * same dbAccess object which implies to the same session.
+     * Transactions of other threads are not affected.
      */
     public void rollback() {
-        Session s = dbHibernate.getActiveSession();
-        Transaction t = s.getTransaction();
-        if (t != null) {
-            t.rollback();
-        }
+        measure("rollback", probe -> {
+            Session s = dbHibernate.getActiveSession();
+            Transaction t = s.getTransaction();
+            if (t != null) {
+                t.rollback();
+            }
+        });
     }
 
     /**
@@ -106,9 +178,14 @@ public class DaoHibernate<PersistType> {
      * closing the session will commit open transaction,
      *
      * @see DbHibernate#closeSession()
+     * @see DbHibernateGroup#closeSession()
      */
     public void closeSession() {
-        dbHibernate.closeSession();
+        if (group != null) {
+            group.closeSession();
+        } else {
+            dbHibernate.closeSession();
+        }
     }
 
     /**
@@ -120,22 +197,245 @@ public class DaoHibernate<PersistType> {
      * changed by another thread or process)
      */
     public boolean save(PersistType obj) {
-        Session s = dbHibernate.getActiveSession();
+        checkWritable();
+        return measured("save", probe -> {
+            Session s = dbHibernate.getActiveSession();
+            try {
+                s.saveOrUpdate(obj);
+                probe.rows(1);
+                return true;
+            } catch (StaleObjectStateException stex) {
+                probe.stale(1);
+                s.refresh(obj);
+                return false;
+            } catch (RuntimeException rex) {
+                Transaction t = s.getTransaction();
+                if (t != null) {
+                    t.rollback();
+                }
+                s.close();
+                throw rex;
+            }
+        });
+    }
+
+    /**
+     * save many objects to persistent storage using JDBC batching.
+     * The transaction is not committed, so don't forget to call commit() afterwards.
+     *
+     * @param objects   objects to be saved
+     * @param batchSize number of objects written in one JDBC batch
+     * @return one result per batch
+     * @see #saveAll(Iterable, int, int)
+     */
+    public List<BatchResult<PersistType>> saveAll(Iterable<? extends PersistType> objects, int batchSize) {
+        return saveAll(objects, batchSize, 0);
+    }
+
+    /**
+     * save many objects from a stream to persistent storage using JDBC batching.
+     *
+     * @param objects     stream of objects to be saved
+     * @param batchSize   number of objects written in one JDBC batch
+     * @param commitEvery commit transaction after this number of batches, 0 to never commit
+     * @return one result per batch
+     * @see #saveAll(Iterable, int, int)
+     */
+    public List<BatchResult<PersistType>> saveAll(Stream<? extends PersistType> objects, int batchSize,
+                                                  int commitEvery) {
+        Iterable<PersistType> iterable = () -> objects.<PersistType>map(o -> o).iterator();
+        return saveAll(iterable, batchSize, commitEvery);
+    }
+
+    /**
+     * save many objects to persistent storage using JDBC batching.
+     * Objects are flushed to the database every batchSize objects and then removed from the session,
+     * so memory consumption stays flat even for very large numbers of objects. Saved objects are
+     * detached afterwards.<br>
+     * Versions of detached objects are checked with one query per batch before writing it. Stale
+     * objects are refreshed and skipped, just like {@link #save(Object)} does it.
+     * If nevertheless a batch fails because an object became "stale" in the meantime, the transaction
+     * is rolled back and no further objects are saved. The last result in the list reports this.<br>
+     * JDBC batching of inserts needs an id generator that is not IDENTITY based, e.g. a sequence.
+     * Setting hibernate.order_inserts and hibernate.order_updates in the configuration may improve
+     * batching further.
+     * Also starts a transaction, if none is active
+     *
+     * @param objects     objects to be saved
+     * @param batchSize   number of objects written in one JDBC batch
+     * @param commitEvery commit transaction after this number of batches, 0 to never commit
+     * @return one result per batch
+     */
+    public List<BatchResult<PersistType>> saveAll(Iterable<? extends PersistType> objects, int batchSize,
+                                                  int commitEvery) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        checkWritable();
+        return measured("saveAll", probe -> {
+            List<BatchResult<PersistType>> results = new ArrayList<>();
+            List<PersistType> batch = new ArrayList<>(batchSize);
+            Session s = dbHibernate.getActiveSession();
+            Integer previousBatchSize = s.getJdbcBatchSize();
+            s.setJdbcBatchSize(batchSize);
+            try {
+                for (PersistType obj : objects) {
+                    batch.add(obj);
+                    if (batch.size() == batchSize) {
+                        if (!writeBatch(s, results, batch, commitEvery)) {
+                            return results;
+                        }
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    writeBatch(s, results, batch, commitEvery);
+                }
+                return results;
+            } finally {
+                for (BatchResult<PersistType> result : results) {
+                    probe.rows(result.getSize() - result.getStale().size());
+                    probe.stale(result.getStale().size());
+                }
+                if (s.isOpen()) {
+                    s.setJdbcBatchSize(previousBatchSize);
+                }
+            }
+        });
+    }
+
+    /**
+     * write a batch to the database, clear the session and commit, if it is time to do it.
+     *
+     * @return false if the batch failed because of stale objects
+     */
+    private boolean writeBatch(Session s, List<BatchResult<PersistType>> results, List<PersistType> batch,
+                               int commitEvery) {
+        int batchIndex = results.size();
+        List<PersistType> stale = new ArrayList<>();
         try {
-            Transaction t = s.getTransaction();
-            s.saveOrUpdate(obj);
+            Set<PersistType> outdated = findOutdated(s, batch);
+            for (PersistType obj : batch) {
+                try {
+                    if (outdated.contains(obj)) {
+                        stale.add(obj);
+                        s.refresh(obj);
+                    } else {
+                        s.saveOrUpdate(obj);
+                    }
+                } catch (StaleObjectStateException stex) {
+                    s.refresh(obj);
+                    stale.add(obj);
+                }
+            }
+            s.flush();
+            s.clear();
+            if (commitEvery > 0 && (batchIndex + 1) % commitEvery == 0) {
+                s.getTransaction().commit();
+                // begin the next transaction through DbHibernate, so it is measured and
+                // reports to commit listeners like every other transaction
+                dbHibernate.getActiveSession();
+            }
+            results.add(new BatchResult<>(batchIndex, batch.size(), stale, false));
             return true;
-        } catch (StaleObjectStateException stex) {
-            s.refresh(obj);
-            return false;
         } catch (RuntimeException rex) {
             Transaction t = s.getTransaction();
-            if (t != null) {
+            if (t != null && t.isActive()) {
                 t.rollback();
             }
-            s.close();
-            throw rex;
+            if (!isStale(rex)) {
+                s.close();
+                throw rex;
+            }
+            s.clear();
+            PersistType staleObject = findStale(s, rex, batch);
+            if (staleObject != null && !stale.contains(staleObject)) {
+                stale.add(staleObject);
+            }
+            results.add(new BatchResult<>(batchIndex, batch.size(), stale, true));
+            return false;
+        }
+    }
+
+    /**
+     * compare versions of detached objects in a batch with their persistent versions.
+     * This is done with a single query, so stale objects are found before JDBC batching
+     * hides which of the updates failed.
+     *
+     * @return objects of the batch that are outdated, compared by identity
+     */
+    private Set<PersistType> findOutdated(Session s, List<PersistType> batch) {
+        Set<PersistType> outdated = Collections.newSetFromMap(new IdentityHashMap<>());
+        EntityPersister metadata = persister();
+        if (!metadata.isVersioned()) {
+            return outdated;
+        }
+        String versionName = metadata.getPropertyNames()[metadata.getVersionProperty()];
+        String idName = metadata.getIdentifierPropertyName();
+        PersistenceUnitUtil util = s.getSessionFactory().getPersistenceUnitUtil();
+        Map<Object, PersistType> versioned = new HashMap<>();
+        for (PersistType obj : batch) {
+            Object id = util.getIdentifier(obj);
+            if (id != null && metadata.getPropertyValue(obj, versionName) != null && !s.contains(obj)) {
+                versioned.put(id, obj);
+            }
+        }
+        if (versioned.isEmpty()) {
+            return outdated;
+        }
+        Map<Object, Object> persistentVersions = new HashMap<>();
+        s.createQuery("select " + idName + ", " + versionName + " from " + accessedType.getCanonicalName()
+                + " where " + idName + " in (:ids)", Object[].class)
+                .setParameterList("ids", versioned.keySet())
+                .list()
+                .forEach(row -> persistentVersions.put(row[0], row[1]));
+        versioned.forEach((id, obj) -> {
+            Object persistentVersion = persistentVersions.get(id);
+            if (persistentVersion != null
+                    && !persistentVersion.equals(metadata.getPropertyValue(obj, versionName))) {
+                outdated.add(obj);
+            }
+        });
+        return outdated;
+    }
+
+    /**
+     * identify the object of a batch that caused an optimistic locking failure
+     *
+     * @return the stale object or null, if it cannot be determined
+     */
+    @SuppressWarnings("unchecked")
+    private PersistType findStale(Session s, Throwable ex, List<PersistType> batch) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException && ((OptimisticLockException) cause).getEntity() != null) {
+                return (PersistType) ((OptimisticLockException) cause).getEntity();
+            }
+            if (cause instanceof StaleObjectStateException) {
+                Serializable staleId = ((StaleObjectStateException) cause).getIdentifier();
+                PersistenceUnitUtil util = s.getSessionFactory().getPersistenceUnitUtil();
+                for (PersistType obj : batch) {
+                    if (staleId != null && staleId.equals(util.getIdentifier(obj))) {
+                        return obj;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * check if an exception was caused by an optimistic locking conflict
+     *
+     * @param ex exception thrown by hibernate
+     * @return true if some object was "stale"
+     */
+    static boolean isStale(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StaleStateException || cause instanceof OptimisticLockException) {
+                return true;
+            }
         }
+        return false;
     }
 
     /*
@@ -148,22 +448,146 @@ public class DaoHibernate<PersistType> {
      */
     @SuppressWarnings("unchecked")
     public PersistType fetch(Serializable id) {
-        Session s = dbHibernate.getActiveSession();
-        Object result = s.get(accessedType, id);
-        return (PersistType) result;
+        return measured("fetch", probe -> {
+            Session s = reader().getActiveSession();
+            boolean defaultReadOnly = s.isDefaultReadOnly();
+            s.setDefaultReadOnly(defaultReadOnly || readOnly);
+            try {
+                Object result = s.get(accessedType, id);
+                probe.rows(result == null ? 0 : 1);
+                return (PersistType) result;
+            } finally {
+                s.setDefaultReadOnly(defaultReadOnly);
+            }
+        });
     }
 
     /*
      * Fetch all objects of PersistType in persistent storage
+     * The result is held in the query cache, if PersistType is cached.
      * Also starts a transaction, if none is active
      *
      * @return list of all objects
      */
     @SuppressWarnings("unchecked")
     public List<PersistType> fetchAll() {
-        Session s = dbHibernate.getActiveSession();
-        return (List<PersistType>) s.createQuery(
-                "from " + accessedType.getCanonicalName()).list();
+        return measured("fetchAll", probe -> {
+            Session s = reader().getActiveSession();
+            List<PersistType> result = (List<PersistType>) readMode(s.createQuery(
+                    "from " + accessedType.getCanonicalName()))
+                    .setCacheable(isCachingQueries())
+                    .list();
+            probe.rows(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * fetch all objects of PersistType together with the associations given in plan
+     *
+     * @param plan associations to be fetched
+     * @return List of all objects of PersistType
+     * @see FetchPlan
+     */
+    public List<PersistType> fetchAll(FetchPlan plan) {
+        return applyPlan(plan, fetchAll());
+    }
+
+    /**
+     * Fetch many objects by their ids from persistent storage.
+     * Objects already in the session are taken from there, all others are loaded with
+     * chunked IN queries instead of one query per id.
+     * Also starts a transaction, if none is active
+     *
+     * @param ids key properties of objects
+     * @return all objects found, in no particular order
+     */
+    public List<PersistType> fetchAll(Collection<? extends Serializable> ids) {
+        return fetchAll(ids, 0);
+    }
+
+    /**
+     * Fetch many objects by their ids from persistent storage.
+     * Objects already in the session are taken from there, all others are loaded with
+     * chunked IN queries instead of one query per id.
+     * Also starts a transaction, if none is active
+     *
+     * @param ids       key properties of objects
+     * @param batchSize maximum number of ids in one IN query, 0 to use hibernate's default
+     * @return all objects found, in no particular order
+     */
+    public List<PersistType> fetchAll(Collection<? extends Serializable> ids, int batchSize) {
+        return measured("fetchAllById", probe -> {
+            List<PersistType> found = multiLoad(ids, batchSize, false);
+            found.removeIf(Objects::isNull);
+            probe.rows(found.size());
+            return found;
+        });
+    }
+
+    /**
+     * Fetch many objects by their ids from persistent storage into a map.
+     * Objects already in the session are taken from there, all others are loaded with
+     * chunked IN queries instead of one query per id.
+     * Also starts a transaction, if none is active
+     *
+     * @param ids  key properties of objects
+     * @param <ID> type of key property
+     * @return map from id to object in the order of ids, ids not found are missing
+     */
+    public <ID extends Serializable> Map<ID, PersistType> fetchMap(Collection<ID> ids) {
+        return fetchMap(ids, 0);
+    }
+
+    /**
+     * Fetch many objects by their ids from persistent storage into a map.
+     * Objects already in the session are taken from there, all others are loaded with
+     * chunked IN queries instead of one query per id.
+     * Also starts a transaction, if none is active
+     *
+     * @param ids       key properties of objects
+     * @param batchSize maximum number of ids in one IN query, 0 to use hibernate's default
+     * @param <ID>      type of key property
+     * @return map from id to object in the order of ids, ids not found are missing
+     */
+    public <ID extends Serializable> Map<ID, PersistType> fetchMap(Collection<ID> ids, int batchSize) {
+        return measured("fetchMap", probe -> {
+            List<ID> idList = new ArrayList<>(ids);
+            List<PersistType> found = multiLoad(idList, batchSize, true);
+            Map<ID, PersistType> result = new LinkedHashMap<>();
+            for (int i = 0; i < idList.size(); i++) {
+                if (found.get(i) != null) {
+                    result.put(idList.get(i), found.get(i));
+                }
+            }
+            probe.rows(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * load objects with hibernate's multi load support
+     *
+     * @param ids       key properties of objects
+     * @param batchSize maximum number of ids in one IN query, 0 to use hibernate's default
+     * @param ordered   if true, result has one entry per id in the same order, null if not found
+     * @return loaded objects
+     */
+    private List<PersistType> multiLoad(Collection<? extends Serializable> ids, int batchSize, boolean ordered) {
+        Session s = reader().getActiveSession();
+        MultiIdentifierLoadAccess<PersistType> loadAccess = s.byMultipleIds(persistClass())
+                .enableSessionCheck(true)
+                .enableOrderedReturn(ordered);
+        if (batchSize > 0) {
+            loadAccess.withBatchSize(batchSize);
+        }
+        boolean defaultReadOnly = s.isDefaultReadOnly();
+        s.setDefaultReadOnly(defaultReadOnly || readOnly);
+        try {
+            return new ArrayList<>(loadAccess.multiLoad(new ArrayList<>(ids)));
+        } finally {
+            s.setDefaultReadOnly(defaultReadOnly);
+        }
     }
 
     /**
@@ -171,6 +595,7 @@ public class DaoHibernate<PersistType> {
      * Method uses ScrollableResults class and closes it after each iteration.
      * This makes iteration much slower on large data sets
      * but it is safe to break iteration at any time.
+     * Use {@link #iteratePagesByKey(int)} for large data sets.
      * <p>
      * Also starts a transaction, if none is active
      *
@@ -189,6 +614,7 @@ public class DaoHibernate<PersistType> {
      * Method uses ScrollableResults class and closes it after each iteration.
      * This makes iteration much slower on large data sets
      * but it is safe to break iteration at any time.
+     * Use {@link #iteratePagesByKey(int, String, String)} for large data sets.
      * <p>
      * Also starts a transaction, if none is active
      *
@@ -199,14 +625,9 @@ public class DaoHibernate<PersistType> {
      */
     @SuppressWarnings("unchecked")
     public Iterator<List<PersistType>> iteratePages(int pageSize, int startAt, String predicates) {
-        if (predicates != null && predicates.length() > 0) {
-            predicates = " " + predicates;
-        } else {
-            predicates = "";
-        }
-        Session session = dbHibernate.getActiveSession();
-        Query<PersistType> query = session
-                .createQuery("from " + accessedType.getCanonicalName() + predicates)
+        Session session = reader().getActiveSession();
+        Query<PersistType> query = readMode(session
+                .createQuery(fromPersistType(predicates)))
                 .setCacheMode(CacheMode.IGNORE);
 
         return new Iterator<List<PersistType>>() {
@@ -240,24 +661,152 @@ public class DaoHibernate<PersistType> {
             }
 
             private List<PersistType> nextPage() {
-                List<PersistType> page = new ArrayList<>(pageSize);
-                if (!hasNextBeenCalled) {
-                    hasNext();
-                }
-                while (page.size() < pageSize) {
-                    if (lastNextCallResult) {
-                        page.add((PersistType) scrollableResults.get(0));
-                        lastNextCallResult = scrollableResults.next();
-                    } else {
-                        break;
+                return measured("iteratePages", probe -> {
+                    List<PersistType> page = new ArrayList<>(pageSize);
+                    if (!hasNextBeenCalled) {
+                        hasNext();
+                    }
+                    while (page.size() < pageSize) {
+                        if (lastNextCallResult) {
+                            page.add((PersistType) scrollableResults.get(0));
+                            lastNextCallResult = scrollableResults.next();
+                        } else {
+                            break;
+                        }
                     }
+                    scrollableResults.close();
+                    probe.rows(page.size());
+                    return page;
+                });
+            }
+        };
+    }
+
+    /**
+     * Iterate over objects of type PersistType in pages, every page together with the
+     * associations given in plan.
+     *
+     * @param pageSize   number of objects per page
+     * @param startAt    row in result where to start
+     * @param predicates String with syntactically correct HQL predicates
+     * @param plan       associations to be fetched
+     * @return Iterator on Lists of PersistType objects, each holding one page
+     * @see #iteratePages(int, int, String)
+     */
+    public Iterator<List<PersistType>> iteratePages(int pageSize, int startAt, String predicates, FetchPlan plan) {
+        return withPlan(plan, iteratePages(pageSize, startAt, predicates));
+    }
+
+    /**
+     * Iterate over all objects of PersistType in pages ordered by id.
+     * Every page is read with a separate query that starts after the last id of the previous page
+     * (keyset or seek pagination). So reading a page costs the same, no matter how deep it is
+     * in the result, and it is safe to break iteration at any time.
+     * <p>
+     * Also starts a transaction, if none is active
+     *
+     * @param pageSize number of objects per page
+     * @return Iterator on Lists of PersistType objects, each holding one page
+     */
+    public Iterator<List<PersistType>> iteratePagesByKey(int pageSize) {
+        return iteratePagesByKey(pageSize, null, "");
+    }
+
+    /**
+     * Restrict iteration over objects of type PersistType in pages ordered by a unique key.
+     * Every page is read with a separate query that starts after the key of the last object
+     * of the previous page (keyset or seek pagination). So reading a page costs the same, no matter
+     * how deep it is in the result, and it is safe to break iteration at any time.
+     * The key attribute should be indexed in the database.
+     * <p>
+     * Also starts a transaction, if none is active
+     *
+     * @param pageSize    number of objects per page
+     * @param key         name of an ordered, unique and not null attribute of PersistType,
+     *                    null or empty to use the id
+     * @param restriction String with a syntactically correct HQL condition without "where"
+     *                    (e.g. name like 'A%'), null or empty to iterate over all objects
+     * @return Iterator on Lists of PersistType objects, each holding one page
+     */
+    public Iterator<List<PersistType>> iteratePagesByKey(int pageSize, String key, String restriction) {
+        String keyName = key == null || key.isEmpty() ? persister().getIdentifierPropertyName() : key;
+        boolean byId = keyName.equals(persister().getIdentifierPropertyName());
+        String condition = restriction == null || restriction.isEmpty() ? "" : "(" + restriction + ")";
+        String from = "from " + accessedType.getCanonicalName();
+        String firstQuery = from + (condition.isEmpty() ? "" : " where " + condition)
+                + " order by " + keyName;
+        String nextQuery = from + " where " + (condition.isEmpty() ? "" : condition + " and ")
+                + keyName + " > :lastKey order by " + keyName;
+
+        return new Iterator<List<PersistType>>() {
+            Object lastKey;
+            boolean firstPage = true;
+            boolean exhausted = false;
+            List<PersistType> page;
+
+            @Override
+            public boolean hasNext() {
+                if (page == null) {
+                    page = exhausted ? Collections.emptyList() : nextPage();
+                }
+                return !page.isEmpty();
+            }
+
+            @Override
+            public List<PersistType> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
-                scrollableResults.close();
-                return page;
+                List<PersistType> result = page;
+                page = null;
+                return Collections.unmodifiableList(result);
+            }
+
+            private List<PersistType> nextPage() {
+                return measured("iteratePagesByKey", probe -> {
+                    Session session = reader().getActiveSession();
+                    Query<PersistType> query = readMode(session
+                            .createQuery(firstPage ? firstQuery : nextQuery, persistClass()))
+                            .setCacheMode(CacheMode.IGNORE)
+                            .setMaxResults(pageSize);
+                    if (!firstPage) {
+                        query.setParameter("lastKey", lastKey);
+                    }
+                    List<PersistType> result = query.list();
+                    if (result.size() < pageSize) {
+                        exhausted = true;
+                    }
+                    if (!result.isEmpty()) {
+                        PersistType last = result.get(result.size() - 1);
+                        lastKey = byId
+                                ? persister().getIdentifier(last, (SharedSessionContractImplementor) session)
+                                : persister().getPropertyValue(last, keyName);
+                        firstPage = false;
+                    }
+                    probe.rows(result.size());
+                    return result;
+                });
             }
         };
     }
 
+    /**
+     * Iterate over objects of type PersistType in pages ordered by a unique key, every page together
+     * with the associations given in plan.
+     *
+     * @param pageSize    number of objects per page
+     * @param key         name of an ordered, unique and not null attribute of PersistType,
+     *                    null or empty to use the id
+     * @param restriction String with a syntactically correct HQL condition without "where"
+     * @param plan        associations to be fetched
+     * @return Iterator on Lists of PersistType objects, each holding one page
+     * @see #iteratePagesByKey(int, String, String)
+     */
+    public Iterator<List<PersistType>> iteratePagesByKey(int pageSize, String key, String restriction,
+                                                         FetchPlan plan) {
+        return withPlan(plan, iteratePagesByKey(pageSize, key, restriction));
+    }
+
     /**
      * Iterate over all objects of PersistType using Hibernate ScrollableResults class.
      * Hibernate class ScrollableResults is used to scroll through results. This is very fast
@@ -280,7 +829,7 @@ public class DaoHibernate<PersistType> {
      * The query MUST return only objects of type PersistType!
      * The internally used ScrollableResults object is only closed at the end of iteration.
      * So the whole result set should always be iterated to the end. Use iteratePages to safely
-     * work only on a limited part.
+     * work only on a limited part or streamAll for constant memory consumption.
      * <p>
      * Also starts a transaction, if none is active
      *
@@ -289,16 +838,14 @@ public class DaoHibernate<PersistType> {
      */
     @SuppressWarnings("unchecked")
     public Iterator<PersistType> iterateAll(String predicates) {
-        if (predicates != null && predicates.length() > 0) {
-            predicates = " " + predicates;
-        } else {
-            predicates = "";
-        }
-        Session session = dbHibernate.getActiveSession();
-        ScrollableResults scrollableResults = session
-                .createQuery("from " + accessedType.getCanonicalName() + predicates)
-                .setCacheMode(CacheMode.IGNORE)
-                .scroll(ScrollMode.FORWARD_ONLY);
+        // only opening the cursor is measured, rows are read by the caller
+        ScrollableResults scrollableResults = measured("iterateAll", probe -> {
+            Session session = reader().getActiveSession();
+            return readMode(session
+                    .createQuery(fromPersistType(predicates)))
+                    .setCacheMode(CacheMode.IGNORE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+        });
 
         /*
          * emulate an Iterator on ScrollableResults
@@ -338,23 +885,549 @@ public class DaoHibernate<PersistType> {
     }
 
     /**
-     * executes hibernate query <br>
-     * (e.g. select address from person p join p.address)
-     * Also starts a transaction, if none is active
+     * Iterate over objects of type PersistType together with the associations given in plan.
+     * Objects are read ahead in chunks of the batch size of plan, then the associations of
+     * the chunk are fetched.
      *
-     * @param query simple HQL query string
-     * @return list of returned objects
+     * @param predicates String with syntactically correct HQL predicates
+     * @param plan       associations to be fetched
+     * @return Iterator on all objects of PersistType
+     * @see #iterateAll(String)
      */
-    @SuppressWarnings("unchecked")
-    public List<Object> find(String query) {
-        Session s = dbHibernate.getActiveSession();
-        return s.createQuery(query).list();
+    public Iterator<PersistType> iterateAll(String predicates, FetchPlan plan) {
+        Iterator<PersistType> objects = iterateAll(predicates);
+        Iterator<List<PersistType>> chunks = withPlan(plan, new Iterator<List<PersistType>>() {
+            @Override
+            public boolean hasNext() {
+                return objects.hasNext();
+            }
+
+            @Override
+            public List<PersistType> next() {
+                List<PersistType> chunk = new ArrayList<>(plan.getBatchSize());
+                while (chunk.size() < plan.getBatchSize() && objects.hasNext()) {
+                    chunk.add(objects.next());
+                }
+                return chunk;
+            }
+        });
+        return new Iterator<PersistType>() {
+            Iterator<PersistType> chunk = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                return chunk.hasNext() || chunks.hasNext();
+            }
+
+            @Override
+            public PersistType next() {
+                if (!chunk.hasNext()) {
+                    chunk = chunks.next().iterator();
+                }
+                return chunk.next();
+            }
+        };
     }
 
     /**
-     * executes hibernate query with parameters <br>
-     * (e.g. from person p where p.name = :name)
-     * Also starts a transaction, if none is active
+     * Stream all objects of PersistType from persistent storage with constant memory consumption.
+     *
+     * @return a stream that must be closed after use
+     * @see #streamAll(String, int)
+     */
+    public Stream<PersistType> streamAll() {
+        return streamAll("", DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Restrict and/or order a stream of objects of type PersistType by extending the basic HQL query.
+     *
+     * @param predicates String with syntactically correct HQL predicates
+     * @return a stream that must be closed after use
+     * @see #streamAll(String, int)
+     */
+    public Stream<PersistType> streamAll(String predicates) {
+        return streamAll(predicates, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Restrict and/or order a stream of objects of type PersistType by extending the basic HQL query.
+     * The basic query is "from PersistType", predicates String is appended after a blank.
+     * Objects are read in a separate StatelessSession through a forward only cursor. They never enter
+     * a persistence context, so memory consumption stays constant even for tables with millions of rows.
+     * Streamed objects are detached, lazy associations can not be loaded.<br>
+     * The cursor and the StatelessSession are released at the end of the stream or when the stream is
+     * closed. So always close the stream, best in a try-with-resources statement, if it may not be
+     * read to the end.
+     *
+     * @param predicates String with syntactically correct HQL predicates
+     * @param fetchSize  number of rows the JDBC driver fetches from the database at once
+     * @return a stream that must be closed after use
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<PersistType> streamAll(String predicates, int fetchSize) {
+        return scroll("streamAll", fromPersistType(predicates), fetchSize,
+                results -> (PersistType) results.get(0));
+    }
+
+    /**
+     * Stream objects of type PersistType in pages with constant memory consumption.
+     * Pages are read through a single cursor in a StatelessSession, so this is much faster than
+     * iteratePages. Pages hold detached objects.
+     *
+     * @param pageSize   number of objects per page, also used as JDBC fetch size
+     * @param predicates String with syntactically correct HQL predicates
+     * @return a stream of pages that must be closed after use
+     * @see #streamAll(String, int)
+     */
+    public Stream<List<PersistType>> streamPages(int pageSize, String predicates) {
+        Stream<PersistType> objects = streamAll(predicates, pageSize);
+        Iterator<PersistType> iterator = objects.iterator();
+        Spliterator<List<PersistType>> spliterator = new Spliterators.AbstractSpliterator<List<PersistType>>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super List<PersistType>> action) {
+                List<PersistType> page = new ArrayList<>(pageSize);
+                while (page.size() < pageSize && iterator.hasNext()) {
+                    page.add(iterator.next());
+                }
+                if (page.isEmpty()) {
+                    return false;
+                }
+                action.accept(Collections.unmodifiableList(page));
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(objects::close);
+    }
+
+    /**
+     * Process all objects of PersistType in parallel, split into slices by id.
+     *
+     * @param partitions  number of slices
+     * @param restriction String with a syntactically correct HQL condition without "where",
+     *                    null or empty to process all objects
+     * @param action      called for every object, must be thread safe
+     * @return number of processed objects
+     * @see #parallelScan(int, String, String, Consumer)
+     */
+    public long parallelScan(int partitions, String restriction, Consumer<? super PersistType> action) {
+        return parallelScan(partitions, null, restriction, action);
+    }
+
+    /**
+     * Process all objects of PersistType in parallel. The range between the smallest and the
+     * largest value of an integral key attribute is split into slices of equal width. Every slice
+     * is read through its own cursor in a separate StatelessSession, using the threads of
+     * {@link AsyncDaoHibernate}, so at most as many slices run concurrently as the connection pool
+     * holds connections. A slice reads only as fast as action consumes its objects. Called within an
+     * asynchronous unit of work, the slices are scanned one after the other in the calling thread,
+     * because waiting for other units could block forever.<br>
+     * If action or reading fails in one slice, all other slices stop after their current object and
+     * the first exception is rethrown. Objects are detached, lazy associations can not be loaded.
+     * This method returns when all slices are done.
+     *
+     * @param partitions  number of slices
+     * @param key         name of an integral attribute of PersistType (e.g. a numeric id),
+     *                    null or empty to use the id
+     * @param restriction String with a syntactically correct HQL condition without "where"
+     *                    (e.g. amount > 0), null or empty to process all objects
+     * @param action      called for every object, must be thread safe
+     * @return number of processed objects
+     */
+    @SuppressWarnings("unchecked")
+    public long parallelScan(int partitions, String key, String restriction,
+                             Consumer<? super PersistType> action) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("at least one partition needed");
+        }
+        return measured("parallelScan", probe -> {
+            String keyName = key == null || key.isEmpty() ? persister().getIdentifierPropertyName() : key;
+            String condition = restriction == null || restriction.isEmpty() ? "" : "(" + restriction + ") and ";
+            String from = "from " + accessedType.getCanonicalName();
+            Object[] range;
+            try (Stream<Object[]> bounds = scroll("parallelScanRange",
+                    "select min(" + keyName + "), max(" + keyName + ") " + from
+                            + (condition.isEmpty() ? "" : " where (" + restriction + ")"),
+                    1, ScrollableResults::get)) {
+                range = bounds.findFirst().orElseThrow(IllegalStateException::new);
+            }
+            if (range[0] == null) {
+                return 0L;
+            }
+            BigInteger min = BigInteger.valueOf(((Number) range[0]).longValue());
+            BigInteger span = BigInteger.valueOf(((Number) range[1]).longValue()).subtract(min).add(BigInteger.ONE);
+            BigInteger parts = BigInteger.valueOf(partitions);
+            String query = from + " where " + condition
+                    + keyName + " >= :lower and " + keyName + " <= :upper";
+
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            AtomicLong processed = new AtomicLong();
+            List<CompletableFuture<Void>> slices = new ArrayList<>(partitions);
+            AsyncExecutor executor = dbHibernate.getAsyncExecutor();
+            // a unit of work holds a permit, slices submitted by it could wait for a permit forever
+            boolean sequential = executor.isWorker();
+            // slice bounds are computed exactly, so keys near Long.MIN_VALUE or Long.MAX_VALUE can't overflow
+            long lower = min.longValueExact();
+            for (int i = 1; i <= partitions; i++) {
+                long upper = min.add(span.multiply(BigInteger.valueOf(i)).divide(parts)).longValueExact() - 1;
+                if (upper < lower) {
+                    continue;
+                }
+                Map<String, Object> params = new HashMap<>();
+                params.put("lower", keyValue(range[0], lower));
+                params.put("upper", keyValue(range[0], upper));
+                Supplier<Void> scanSlice = () -> {
+                    try (Stream<PersistType> slice = scroll("parallelScanSlice", query, params, DEFAULT_FETCH_SIZE,
+                            results -> (PersistType) results.get(0))) {
+                        Iterator<PersistType> objects = slice.iterator();
+                        while (failure.get() == null && objects.hasNext()) {
+                            action.accept(objects.next());
+                            processed.incrementAndGet();
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                    return null;
+                };
+                if (!sequential) {
+                    slices.add(executor.submit(scanSlice));
+                } else if (failure.get() == null) {
+                    scanSlice.get();
+                }
+                lower = upper + 1;
+            }
+            CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0])).join();
+            Throwable failed = failure.get();
+            if (failed instanceof RuntimeException) {
+                throw (RuntimeException) failed;
+            } else if (failed instanceof Error) {
+                throw (Error) failed;
+            } else if (failed != null) {
+                throw new IllegalStateException(failed);
+            }
+            probe.rows(processed.get());
+            return processed.get();
+        });
+    }
+
+    /**
+     * Read the next page of objects that changed after a watermark, e.g. to synchronize another system
+     * without reading the whole table every time. Changes are ordered by a change attribute that grows
+     * with every change, like a timestamp version or a last modified date, and by id. Pages are read by
+     * keyset, so every page costs the same, and an index on change attribute and id makes it cheap.<br>
+     * Objects are loaded into the active session. Start with {@link Watermark#start(String)} and pass
+     * the watermark of the returned page to the next call. Objects whose change attribute is set
+     * to a value below the watermark, e.g. by a long running transaction that commits late, are missed.
+     *
+     * @param watermark  position after the last change that was seen
+     * @param maxChanges maximum number of objects on the page
+     * @return the changed objects and the watermark to continue from
+     * @throws IllegalArgumentException if the change attribute does not exist or is a numeric
+     *                                  version, which counts changes per object only
+     * @see ChangeFeed
+     */
+    public ChangeSet<PersistType> changesSince(Watermark watermark, int maxChanges) {
+        if (maxChanges < 1) {
+            throw new IllegalArgumentException("maxChanges must be positive: " + maxChanges);
+        }
+        return measured("changesSince", probe -> {
+            EntityPersister persister = persister();
+            String attribute = "e." + watermark.getAttribute();
+            checkChangeAttribute(persister, watermark.getAttribute());
+            String keyset;
+            if (watermark.getValue() == null) {
+                keyset = attribute + " is not null";
+            } else if (watermark.getId() == null) {
+                keyset = attribute + " > :value";
+            } else {
+                keyset = "(" + attribute + " > :value or (" + attribute + " = :value and e.id > :id))";
+            }
+            String hql = "from " + accessedType.getCanonicalName()
+                    + " e where " + keyset + " order by " + attribute + ", e.id";
+            probe.query(hql, Collections.emptyMap());
+            Session s = reader().getActiveSession();
+            Query<PersistType> query = readMode(s.createQuery(hql, persistClass()));
+            if (watermark.getValue() != null) {
+                query.setParameter("value", watermark.getValue());
+            }
+            if (watermark.getId() != null) {
+                query.setParameter("id", watermark.getId());
+            }
+            List<PersistType> changes = query.setMaxResults(maxChanges).list();
+            Watermark next = watermark;
+            if (!changes.isEmpty()) {
+                PersistType last = changes.get(changes.size() - 1);
+                next = new Watermark(watermark.getAttribute(),
+                        (Serializable) persister.getPropertyValue(last, watermark.getAttribute()),
+                        persister.getIdentifier(last, (SharedSessionContractImplementor) s));
+            }
+            probe.rows(changes.size());
+            return new ChangeSet<>(changes, next, changes.size() == maxChanges);
+        });
+    }
+
+    /**
+     * make sure that the change attribute exists and its values grow across all objects
+     */
+    private static void checkChangeAttribute(EntityPersister persister, String attribute) {
+        Integer index = persister.getEntityMetamodel().getPropertyIndexOrNull(attribute);
+        if (index == null) {
+            throw new IllegalArgumentException("unknown attribute " + attribute + " of " + persister.getEntityName());
+        }
+        if (persister.isVersioned() && index == persister.getVersionProperty()
+                && Number.class.isAssignableFrom(persister.getPropertyTypes()[index].getReturnedClass())) {
+            throw new IllegalArgumentException("numeric version " + attribute + " of " + persister.getEntityName()
+                    + " counts changes per object, use a timestamp version or a last modified attribute");
+        }
+    }
+
+    /**
+     * Write all objects of PersistType to a channel, e.g. a FileChannel for nightly snapshots.
+     * Rows are read through a forward only cursor in a StatelessSession and encoded in another thread
+     * into pooled direct buffers, while the calling thread writes the buffers to the channel. So
+     * memory consumption is constant for any number of objects.<br>
+     * The id and all attributes of basic types are exported, associations, collections and embedded
+     * attributes are not. The channel is not closed.
+     *
+     * @param channel a blocking channel
+     * @param format  file format
+     * @return number of exported objects
+     * @see #exportTo(WritableByteChannel, ExportFormat, String)
+     */
+    public long exportTo(WritableByteChannel channel, ExportFormat format) {
+        return exportTo(channel, format, "");
+    }
+
+    /**
+     * Write selected objects of PersistType to a channel.
+     *
+     * @param channel    a blocking channel
+     * @param format     file format
+     * @param predicates String with syntactically correct HQL predicates, the exported objects
+     *                   have the alias e (e.g. "where e.amount > 0 order by e.id"). Attributes
+     *                   whose names are HQL keywords must be qualified with e.
+     * @return number of exported objects
+     * @see #exportTo(WritableByteChannel, ExportFormat)
+     */
+    public long exportTo(WritableByteChannel channel, ExportFormat format, String predicates) {
+        return measured("exportTo", probe -> {
+            TableCodec codec = new TableCodec(persister());
+            // attributes are qualified, as their names may be HQL keywords like count or day
+            String query = "select " + Arrays.stream(codec.getAttributes()).map(name -> "e." + name)
+                    .collect(Collectors.joining(", ")) + " from " + accessedType.getCanonicalName() + " e "
+                    + (predicates == null ? "" : predicates);
+            long exported = ChannelPipeline.write(dbHibernate.getAsyncExecutor(), channel, out -> {
+                try (Stream<Object[]> rows = scroll("exportRows", query, DEFAULT_FETCH_SIZE, ScrollableResults::get)) {
+                    return codec.encode(rows.iterator(), format, out);
+                }
+            });
+            probe.rows(exported);
+            return exported;
+        });
+    }
+
+    /**
+     * Read objects of PersistType from a channel that was written by {@link #exportTo} and save them
+     * as new objects, e.g. to seed a test environment. Rows are decoded in another thread, while the
+     * calling thread saves the objects in JDBC batches and clears the session after every batch.
+     * Ids and versions in the file are not used, new objects get new ids. Attributes missing
+     * in the file keep their initial values.<br>
+     * The transaction is not committed, so don't forget to call commit() afterwards.
+     * The channel is not closed.
+     *
+     * @param channel a blocking channel
+     * @param format  file format
+     * @return one result per batch
+     * @see #importFrom(ReadableByteChannel, ExportFormat, int, int)
+     */
+    public List<BatchResult<PersistType>> importFrom(ReadableByteChannel channel, ExportFormat format) {
+        return importFrom(channel, format, DEFAULT_FETCH_SIZE, 0);
+    }
+
+    /**
+     * Read objects of PersistType from a channel and save them as new objects.
+     * For millions of objects, commit regularly to keep the transaction small.
+     *
+     * @param channel     a blocking channel
+     * @param format      file format
+     * @param batchSize   number of objects written in one JDBC batch
+     * @param commitEvery commit transaction after this number of batches, 0 to never commit
+     * @return one result per batch
+     * @throws IllegalArgumentException if the file is not in the given format or holds unknown attributes
+     * @see #saveAll(Iterable, int, int)
+     */
+    @SuppressWarnings("unchecked")
+    public List<BatchResult<PersistType>> importFrom(ReadableByteChannel channel, ExportFormat format,
+                                                     int batchSize, int commitEvery) {
+        checkWritable();
+        TableCodec codec = new TableCodec(persister());
+        try (Stream<PersistType> objects = ChannelPipeline.read(dbHibernate.getAsyncExecutor(), channel,
+                (in, sink) -> codec.decode(in, format, object -> sink.accept((PersistType) object)))) {
+            return saveAll(objects, batchSize, commitEvery);
+        }
+    }
+
+    /**
+     * Stream selected attributes of all objects of PersistType without loading the objects.
+     *
+     * @param attributes names of attributes or HQL expressions, e.g. "name", "address.city"
+     * @return a stream of rows holding the attribute values in the given order, must be closed after use
+     * @see #streamColumns(Class, String, String...)
+     */
+    public Stream<Object[]> streamColumns(String... attributes) {
+        return scroll("streamColumns", selectFromPersistType(attributes, ""), DEFAULT_FETCH_SIZE,
+                ScrollableResults::get);
+    }
+
+    /**
+     * Stream selected attributes of objects of PersistType mapped to objects of resultType,
+     * e.g. records or other DTO classes. resultType needs a public constructor that takes the
+     * attributes in the given order. Rows are read through a forward only cursor in a StatelessSession,
+     * so no entity object is created or kept in a persistence context.
+     * The cursor and the StatelessSession are released at the end of the stream or when the stream is
+     * closed. So always close the stream, if it may not be read to the end.
+     *
+     * @param resultType class of result objects
+     * @param predicates String with syntactically correct HQL predicates, attributes are not
+     *                   qualified by an alias (e.g. "where amount > 0 order by name")
+     * @param attributes names of attributes or HQL expressions, e.g. "name", "address.city"
+     * @param <R>        type of result objects
+     * @return a stream of result objects that must be closed after use
+     */
+    public <R> Stream<R> streamColumns(Class<R> resultType, String predicates, String... attributes) {
+        // the mapper is chosen from the column types of the cursor, when the first row is read
+        AtomicReference<RowMapper<R>> mapper = new AtomicReference<>();
+        return scroll("streamColumns", selectFromPersistType(attributes, predicates), DEFAULT_FETCH_SIZE,
+                results -> {
+                    if (mapper.get() == null) {
+                        List<Class<?>> columnTypes = new ArrayList<>(attributes.length);
+                        for (int i = 0; i < attributes.length; i++) {
+                            columnTypes.add(results.getType(i).getReturnedClass());
+                        }
+                        mapper.set(dbHibernate.rowMapper(resultType, columnTypes));
+                    }
+                    return mapper.get().map(results.get());
+                });
+    }
+
+    /**
+     * Read a numeric attribute of objects of PersistType into a primitive array without
+     * loading the objects or collecting the values in a list. Each value is taken from the cursor
+     * as the Number hibernate reads and stored as primitive at once. Null values are read as 0.
+     *
+     * @param attribute  name of a numeric attribute or HQL expression
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @return all values in query order
+     */
+    public long[] fetchLongs(String attribute, String predicates) {
+        try (Stream<Number> values = scroll("fetchLongs", selectFromPersistType(new String[]{attribute}, predicates),
+                DEFAULT_FETCH_SIZE, results -> (Number) results.get(0))) {
+            return values.mapToLong(value -> value == null ? 0 : value.longValue()).toArray();
+        }
+    }
+
+    /**
+     * Read a numeric attribute of objects of PersistType into a primitive array without
+     * loading the objects or collecting the values in a list. Each value is taken from the cursor
+     * as the Number hibernate reads and stored as primitive at once. Null values are read as 0.
+     *
+     * @param attribute  name of a numeric attribute or HQL expression
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @return all values in query order
+     */
+    public double[] fetchDoubles(String attribute, String predicates) {
+        try (Stream<Number> values = scroll("fetchDoubles", selectFromPersistType(new String[]{attribute}, predicates),
+                DEFAULT_FETCH_SIZE, results -> (Number) results.get(0))) {
+            return values.mapToDouble(value -> value == null ? 0 : value.doubleValue()).toArray();
+        }
+    }
+
+    /**
+     * executes a projection query with parameters and maps every row to an object of resultType,
+     * e.g. a record or any other DTO class with a public constructor that takes the selected columns
+     * in query order. Queries selecting a single column of resultType return the values unchanged.
+     * Selected columns are not managed by the session, so no entity objects, proxies or
+     * snapshots for dirty checking are created.<br>
+     * (e.g. select p.name, p.address.city from Person p where p.age > :age)
+     * Also starts a transaction, if none is active
+     *
+     * @param query      HQL query string selecting attributes, containing named parameters
+     *                   in hibernate style (e.g. :name)
+     * @param params     map of actual parameters with parameter name as key (without :)
+     *                   and actual parameter value as value
+     * @param resultType class of result objects
+     * @param <R>        type of result objects
+     * @return list of result objects
+     */
+    public <R> List<R> findProjected(String query, Map<String, Object> params, Class<R> resultType) {
+        return findProjected(query, params, resultType, false);
+    }
+
+    /**
+     * executes a projection query with parameters and maps every row to an object of resultType.
+     * The result may be held in the query cache.
+     *
+     * @param query      HQL query string selecting attributes, containing named parameters
+     * @param params     map of actual parameters with parameter name as key (without :)
+     * @param resultType class of result objects
+     * @param cacheable  true to hold the result in the query cache, if it is configured
+     * @param <R>        type of result objects
+     * @return list of result objects
+     * @see #findProjected(String, Map, Class)
+     */
+    public <R> List<R> findProjected(String query, Map<String, Object> params, Class<R> resultType,
+                                     boolean cacheable) {
+        return measured("findProjected", probe -> {
+            probe.query(query, params);
+            Session s = reader().getActiveSession();
+            // tuples know the java types of the selected columns, independent of their values
+            Query<Tuple> hibernateQuery = readMode(s.createQuery(query, Tuple.class));
+            hibernateQuery.setReadOnly(true);
+            hibernateQuery.setCacheable(isCachingQueries(cacheable));
+            for (String pname : params.keySet()) {
+                hibernateQuery.setParameter(pname, params.get(pname));
+            }
+            List<Tuple> rows = hibernateQuery.list();
+            List<R> result = new ArrayList<>(rows.size());
+            if (!rows.isEmpty()) {
+                List<Class<?>> columnTypes = new ArrayList<>();
+                rows.get(0).getElements().forEach(element -> columnTypes.add(element.getJavaType()));
+                RowMapper<R> mapper = dbHibernate.rowMapper(resultType, columnTypes);
+                for (Tuple row : rows) {
+                    result.add(mapper.map(row.toArray()));
+                }
+            }
+            probe.rows(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * executes hibernate query <br>
+     * (e.g. select address from person p join p.address)
+     * The result is not cached, see {@link #find(String, Map, boolean)}.
+     * Also starts a transaction, if none is active
+     *
+     * @param query simple HQL query string
+     * @return list of returned objects
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> find(String query) {
+        return measured("find", probe -> {
+            probe.query(query, Collections.emptyMap());
+            Session s = reader().getActiveSession();
+            List<Object> result = readMode(s.createQuery(query)).list();
+            probe.rows(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * executes hibernate query with parameters <br>
+     * (e.g. from person p where p.name = :name)
+     * The result is not cached, see {@link #find(String, Map, boolean)}.
+     * Also starts a transaction, if none is active
      *
      * @param query  HQL query string containing named parameters in hibernate
      *               style (e.g. :name)
@@ -362,14 +1435,96 @@ public class DaoHibernate<PersistType> {
      *               and actual parameter value as value
      * @return list of returned objects
      */
-    @SuppressWarnings("unchecked")
     public List<Object> find(String query, Map<String, Object> params) {
-        Session s = dbHibernate.getActiveSession();
-        Query<?> hibernateQuery = s.createQuery(query);//, accessedType);
-        for (String pname : params.keySet()) {
-            hibernateQuery.setParameter(pname, params.get(pname));
-        }
-        return (List<Object>) hibernateQuery.list();
+        return find(query, params, false);
+    }
+
+    /**
+     * executes hibernate query with parameters and optionally holds the result in the query cache.
+     * Only cache queries whose results are small or consist of objects of cached classes, otherwise
+     * every cached result causes one query per object to load the objects again.
+     * Also starts a transaction, if none is active
+     *
+     * @param query     HQL query string containing named parameters in hibernate
+     *                  style (e.g. :name)
+     * @param params    map of actual parameters with parameter name as key (without :)
+     *                  and actual parameter value as value
+     * @param cacheable true to hold the result in the query cache, if it is configured
+     * @return list of returned objects
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> find(String query, Map<String, Object> params, boolean cacheable) {
+        return measured("find", probe -> {
+            probe.query(query, params);
+            Session s = reader().getActiveSession();
+            Query<?> hibernateQuery = readMode(s.createQuery(query));//, accessedType);
+            hibernateQuery.setCacheable(isCachingQueries(cacheable));
+            for (String pname : params.keySet()) {
+                hibernateQuery.setParameter(pname, params.get(pname));
+            }
+            List<Object> result = (List<Object>) hibernateQuery.list();
+            probe.rows(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * run a query that was registered with {@link DbHibernate#registerQuery(String, String, Class)}.
+     * The query is not parsed again, so this is the fastest way to run frequently used queries.
+     * The result is held in the query cache, if the query was registered as cacheable.
+     * Also starts a transaction, if none is active
+     *
+     * @param query  handle of the registered query
+     * @param params map of actual parameters with parameter name as key (without :)
+     *               and actual parameter value as value
+     * @param <R>    type of the query results
+     * @return list of query results
+     */
+    public <R> List<R> find(NamedQuery<R> query, Map<String, ?> params) {
+        return measured("named:" + query.getName(), probe -> {
+            probe.query(query.getHql(), params);
+            Session s = reader().getActiveSession();
+            Query<R> hibernateQuery = readMode(s.createNamedQuery(query.getName(), query.getResultType()));
+            hibernateQuery.setCacheable(isCachingQueries(query.isCacheable()));
+            params.forEach(hibernateQuery::setParameter);
+            List<R> result = hibernateQuery.list();
+            probe.rows(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * run a registered query by name
+     *
+     * @param queryName  name the query was registered with
+     * @param resultType expected type of the query results
+     * @param params     map of actual parameters with parameter name as key
+     * @param <R>        type of the query results
+     * @return list of query results
+     * @throws IllegalArgumentException if no query with this name and result type is registered
+     * @see #find(NamedQuery, Map)
+     */
+    public <R> List<R> find(String queryName, Class<R> resultType, Map<String, ?> params) {
+        return find(dbHibernate.getNamedQuery(queryName, resultType), params);
+    }
+
+    /**
+     * Stream the results of a registered query with constant memory consumption.
+     * Results are read through a forward only cursor in a separate StatelessSession,
+     * entities are detached. Always close the stream if it may not be read to the end.
+     *
+     * @param query     handle of the registered query
+     * @param params    map of actual parameters with parameter name as key
+     * @param fetchSize number of rows the JDBC driver fetches from the database at once
+     * @param <R>       type of the query results
+     * @return a stream that must be closed after use
+     */
+    public <R> Stream<R> stream(NamedQuery<R> query, Map<String, ?> params, int fetchSize) {
+        Class<R> resultType = query.getResultType();
+        Function<ScrollableResults, R> row = resultType == Object[].class
+                ? results -> resultType.cast(results.get())
+                : results -> resultType.cast(results.get(0));
+        return scroll("named:" + query.getName(), query.getHql(), params, fetchSize, row);
     }
 
     /**
@@ -390,80 +1545,280 @@ public class DaoHibernate<PersistType> {
      * String properties are matched with <i>like</i>, so SQL wildcards (%) can
      * be used.
      * Only single valued attributes are considered, no arrays or collections.
+     * Attribute accessors and queries are resolved only once per class and combination
+     * of not null attributes and then reused.
      * Also starts a transaction, if none is active<br>
      *
      * @param sample   a sample object
      * @param excluded properties not considered im matching
      * @return list of objects that conform to sample in all not null properties
      */
-    @SuppressWarnings("unchecked")
     public List<PersistType> findByExample(PersistType sample,
                                            Collection<String> excluded) {
-        Session s = dbHibernate.getActiveSession();
-        CriteriaBuilder criteriaBuilder = s.getCriteriaBuilder();
-        CriteriaQuery<PersistType> criteriaQuery =
-                (CriteriaQuery<PersistType>) criteriaBuilder.createQuery(accessedType);
-        Root<PersistType> root = (Root<PersistType>) criteriaQuery.from(accessedType);
-        IdentifiableType<?> parent = root.getModel();
-        // figure out names of all Singular attributes in the inheritance chain of entities
-        List<String> attributeNames = new ArrayList<>();
-        while (parent != null) {
-            attributeNames.addAll(
-                    parent.getDeclaredSingularAttributes().stream().
-                            filter((attribute ->
-                                    !excluded.contains(attribute.getName())
-                                            && !attribute.getJavaType().isArray())
-                            ).map(Attribute::getName).collect(Collectors.toList())
-            );
-            parent = parent.getSupertype();
-        }
-        // a list of directly accessible field names of sample object
-        List<String> fieldNames = Arrays.stream(accessedType.getFields()).
-                map(Field::getName).collect(Collectors.toList());
-        // a list of all accessible getter method names of sample object
-        List<String> getterNames = Arrays.stream(accessedType.getMethods()).
-                filter(method ->
-                        method.getName().startsWith("get") && method.getParameterCount() == 0
-                ).map(Method::getName).collect(Collectors.toList());
-        // build a map to collect all not null attributes in sample object
-        Map<String, Object> qbeValues = new HashMap<>();
-        // loop over all persistent attributes
-        attributeNames.forEach(attName -> {
-            try {
-                Object val = null;
-                // direct field access possible?
-                if (fieldNames.contains(attName)) {
-                    val = accessedType.getField(attName).get(sample);
-                } else if (getterNames.contains(getterFor(attName))) {
-                    // there is a getter method?
-                    val = accessedType.getMethod(getterFor(attName)).invoke(sample);
-                }
-                // only consider fields that are neither NULL nor 0
-                if (!(val == null || (val instanceof Number && ((Number) val).longValue() == 0))) {
-                    qbeValues.put(attName, val);
-                }
-            } catch (NoSuchFieldException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-                // should be impossible to get here
-                e.printStackTrace();
-            }
+        return measured("findByExample", probe -> {
+            DbHibernate db = reader();
+            Session s = db.getActiveSession();
+            ExampleQueryPlan.Example example = db.examplePlan(accessedType).bind(sample, excluded);
+            probe.query(example.query(""), Collections.emptyMap());
+            Query<PersistType> query = example.bind(readMode(s.createQuery(example.query(""), persistClass())));
+            List<PersistType> result = query.getResultList();
+            probe.rows(result.size());
+            return result;
         });
-        // now we  can create a list of query predicates
-        List<Predicate> predicateList = new ArrayList<>(qbeValues.size());
-        qbeValues.keySet().forEach(key -> {
-            Object val = qbeValues.get(key);
-            if (val instanceof String) {
-                String stval = (String) val;
-                predicateList.add(criteriaBuilder.like(root.get(key), stval));
-            } else {
-                predicateList.add(criteriaBuilder.equal(root.get(key), val));
+    }
+
+    /**
+     * Query by example. Find objects that are "similar" to the sample object together with
+     * the associations given in plan.
+     *
+     * @param sample   a sample object
+     * @param excluded properties not considered im matching
+     * @param plan     associations to be fetched
+     * @return list of objects that conform to sample in all not null properties
+     * @see #findByExample(Object, Collection)
+     */
+    public List<PersistType> findByExample(PersistType sample, Collection<String> excluded, FetchPlan plan) {
+        return applyPlan(plan, findByExample(sample, excluded));
+    }
+
+    /**
+     * count objects of PersistType without loading them
+     *
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @return number of matching objects
+     * @see #count(String, Map)
+     */
+    public long count(String predicates) {
+        return count(predicates, Collections.emptyMap());
+    }
+
+    /**
+     * count objects of PersistType without loading them.
+     * Also starts a transaction, if none is active
+     *
+     * @param predicates String with syntactically correct HQL predicates containing named parameters,
+     *                   attributes are not qualified by an alias (e.g. "where amount > :min")
+     * @param params     map of actual parameters with parameter name as key
+     * @return number of matching objects
+     */
+    public long count(String predicates, Map<String, ?> params) {
+        return measured("count", probe -> {
+            Query<Long> query = aggregateQuery(probe, "select count(*) " + fromPersistType(predicates), params,
+                    Long.class);
+            return query.uniqueResult();
+        });
+    }
+
+    /**
+     * check if any object of PersistType matches without loading or counting all of them.
+     * The database stops searching at the first match.
+     *
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @return true if at least one object matches
+     * @see #exists(String, Map)
+     */
+    public boolean exists(String predicates) {
+        return exists(predicates, Collections.emptyMap());
+    }
+
+    /**
+     * check if any object of PersistType matches without loading or counting all of them.
+     * Also starts a transaction, if none is active
+     *
+     * @param predicates String with syntactically correct HQL predicates containing named parameters
+     * @param params     map of actual parameters with parameter name as key
+     * @return true if at least one object matches
+     */
+    public boolean exists(String predicates, Map<String, ?> params) {
+        return measured("exists", probe -> {
+            Query<Integer> query = aggregateQuery(probe, "select 1 " + fromPersistType(predicates), params,
+                    Integer.class);
+            return !query.setMaxResults(1).list().isEmpty();
+        });
+    }
+
+    /**
+     * count objects that are "similar" to the sample object without loading them
+     *
+     * @param sample a sample object
+     * @return number of objects that conform to sample in all not null properties
+     * @see #findByExample(Object)
+     */
+    public long countByExample(PersistType sample) {
+        return countByExample(sample, new ArrayList<>());
+    }
+
+    /**
+     * count objects that are "similar" to the sample object without loading them.
+     * Also starts a transaction, if none is active
+     *
+     * @param sample   a sample object
+     * @param excluded properties not considered im matching
+     * @return number of objects that conform to sample in all not null properties
+     * @see #findByExample(Object, Collection)
+     */
+    public long countByExample(PersistType sample, Collection<String> excluded) {
+        return measured("countByExample", probe -> {
+            DbHibernate db = reader();
+            Session s = db.getActiveSession();
+            ExampleQueryPlan.Example example = db.examplePlan(accessedType).bind(sample, excluded);
+            probe.query(example.query("select count(e) "), Collections.emptyMap());
+            Query<Long> query = example.bind(readMode(s.createQuery(example.query("select count(e) "), Long.class)));
+            query.setCacheable(isCachingQueries());
+            return query.uniqueResult();
+        });
+    }
+
+    /**
+     * sum up a numeric attribute of matching objects without loading them
+     *
+     * @param attribute  name of a numeric attribute or HQL expression, e.g. "amount" or "price * quantity"
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @param resultType numeric type of the result, e.g. Long.class, Double.class or BigDecimal.class
+     * @param <N>        numeric type of the result
+     * @return the sum, 0 if no object matches
+     * @see #sum(String, String, Map, Class)
+     */
+    public <N extends Number> N sum(String attribute, String predicates, Class<N> resultType) {
+        return sum(attribute, predicates, Collections.emptyMap(), resultType);
+    }
+
+    /**
+     * sum up a numeric attribute of matching objects without loading them
+     *
+     * @param attribute  name of a numeric attribute or HQL expression, e.g. "amount" or "price * quantity"
+     * @param predicates String with syntactically correct HQL predicates containing named parameters,
+     *                   may be null or empty
+     * @param params     map of actual parameters with parameter name as key
+     * @param resultType numeric type of the result, e.g. Long.class, Double.class or BigDecimal.class
+     * @param <N>        numeric type of the result
+     * @return the sum, 0 if no object matches
+     */
+    public <N extends Number> N sum(String attribute, String predicates, Map<String, ?> params,
+                                    Class<N> resultType) {
+        return measured("sum", probe -> {
+            Number sum = aggregateQuery(probe, "select sum(" + attribute + ") " + fromPersistType(predicates),
+                    params, Number.class).uniqueResult();
+            return toNumber(sum == null ? 0 : sum, resultType);
+        });
+    }
+
+    /**
+     * find the smallest value of an attribute of matching objects without loading them
+     *
+     * @param attribute  name of an attribute or HQL expression
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @param resultType type of the attribute
+     * @param <R>        type of the attribute
+     * @return the smallest value, null if no object matches
+     * @see #min(String, String, Map, Class)
+     */
+    public <R extends Comparable<? super R>> R min(String attribute, String predicates, Class<R> resultType) {
+        return min(attribute, predicates, Collections.emptyMap(), resultType);
+    }
+
+    /**
+     * find the smallest value of an attribute of matching objects without loading them
+     *
+     * @param attribute  name of an attribute or HQL expression
+     * @param predicates String with syntactically correct HQL predicates containing named parameters,
+     *                   may be null or empty
+     * @param params     map of actual parameters with parameter name as key
+     * @param resultType type of the attribute
+     * @param <R>        type of the attribute
+     * @return the smallest value, null if no object matches
+     */
+    public <R extends Comparable<? super R>> R min(String attribute, String predicates, Map<String, ?> params,
+                                                    Class<R> resultType) {
+        return extreme("min", attribute, predicates, params, resultType);
+    }
+
+    /**
+     * find the largest value of an attribute of matching objects without loading them
+     *
+     * @param attribute  name of an attribute or HQL expression
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @param resultType type of the attribute
+     * @param <R>        type of the attribute
+     * @return the largest value, null if no object matches
+     * @see #max(String, String, Map, Class)
+     */
+    public <R extends Comparable<? super R>> R max(String attribute, String predicates, Class<R> resultType) {
+        return max(attribute, predicates, Collections.emptyMap(), resultType);
+    }
+
+    /**
+     * find the largest value of an attribute of matching objects without loading them
+     *
+     * @param attribute  name of an attribute or HQL expression
+     * @param predicates String with syntactically correct HQL predicates containing named parameters,
+     *                   may be null or empty
+     * @param params     map of actual parameters with parameter name as key
+     * @param resultType type of the attribute
+     * @param <R>        type of the attribute
+     * @return the largest value, null if no object matches
+     */
+    public <R extends Comparable<? super R>> R max(String attribute, String predicates, Map<String, ?> params,
+                                                    Class<R> resultType) {
+        return extreme("max", attribute, predicates, params, resultType);
+    }
+
+    private <R> R extreme(String function, String attribute, String predicates, Map<String, ?> params,
+                          Class<R> resultType) {
+        return measured(function, probe -> {
+            Object value = aggregateQuery(probe, "select " + function + "(" + attribute + ") " + fromPersistType(predicates),
+                    params, Object.class).uniqueResult();
+            if (value instanceof Number && Number.class.isAssignableFrom(resultType)) {
+                value = toNumber((Number) value, resultType.asSubclass(Number.class));
             }
+            return resultType.cast(value);
         });
-        Predicate[] predicates = predicateList.toArray(Predicate[]::new);
-        // all predicates of the list must be met
-        criteriaQuery.select(root).where(predicates);
-        // finally create and execute the query
-        Query<PersistType> query = s.createQuery(criteriaQuery);
-        return query.getResultList();
+    }
+
+    /**
+     * create a query that computes an aggregate value in the active session
+     */
+    @SuppressWarnings("unchecked")
+    private <R> Query<R> aggregateQuery(Probe probe, String hql, Map<String, ?> params, Class<R> resultType) {
+        probe.query(hql, params);
+        Session s = reader().getActiveSession();
+        Query<R> query = (Query<R>) readMode(s.createQuery(hql));
+        query.setCacheable(isCachingQueries());
+        params.forEach(query::setParameter);
+        return query;
+    }
+
+    /**
+     * convert a computed number to the requested numeric type
+     *
+     * @throws ArithmeticException if the value does not fit into an Integer or Short
+     */
+    private static <N extends Number> N toNumber(Number value, Class<N> type) {
+        Object result;
+        if (type.isInstance(value)) {
+            result = value;
+        } else if (type == Long.class) {
+            result = value.longValue();
+        } else if (type == Integer.class) {
+            result = Math.toIntExact(value.longValue());
+        } else if (type == Short.class) {
+            long exact = value.longValue();
+            if (exact != (short) exact) {
+                throw new ArithmeticException("short overflow");
+            }
+            result = (short) exact;
+        } else if (type == Double.class) {
+            result = value.doubleValue();
+        } else if (type == Float.class) {
+            result = value.floatValue();
+        } else if (type == BigDecimal.class) {
+            result = value instanceof BigInteger ? new BigDecimal((BigInteger) value) : new BigDecimal(value.toString());
+        } else if (type == BigInteger.class) {
+            result = value instanceof BigDecimal ? ((BigDecimal) value).toBigInteger() : BigInteger.valueOf(value.longValue());
+        } else {
+            throw new IllegalArgumentException("cannot convert " + value.getClass().getName() + " to " + type.getName());
+        }
+        return type.cast(result);
     }
 
     /**
@@ -473,8 +1828,12 @@ public class DaoHibernate<PersistType> {
      * @param obj object to be deleted
      */
     public void delete(PersistType obj) {
-        Session s = dbHibernate.getActiveSession();
-        s.delete(obj);
+        checkWritable();
+        measure("delete", probe -> {
+            Session s = dbHibernate.getActiveSession();
+            s.delete(obj);
+            probe.rows(1);
+        });
     }
 
     /**
@@ -482,9 +1841,88 @@ public class DaoHibernate<PersistType> {
      * Also starts a transaction, if none is active
      */
     public void deleteAll() {
-        Session s = dbHibernate.getActiveSession();
-        s.createQuery("delete " + accessedType.getCanonicalName())
-                .executeUpdate();
+        checkWritable();
+        measure("deleteAll", probe -> {
+            Session s = dbHibernate.getActiveSession();
+            int deleted = s.createQuery("delete " + accessedType.getCanonicalName())
+                    .executeUpdate();
+            probe.rows(deleted);
+        });
+    }
+
+    /**
+     * Delete all objects of PersistType that match predicates with a single bulk statement,
+     * without loading them. Pending changes of the session are flushed before, afterwards the session
+     * is cleared, so all objects loaded by this session are detached. Hibernate invalidates second
+     * level cache and cached queries for PersistType.
+     * Also starts a transaction, if none is active
+     *
+     * @param predicates String with syntactically correct HQL predicates (e.g. "where expires < :now"),
+     *                   attributes are not qualified by an alias
+     * @param params     map of actual parameters with parameter name as key (without :)
+     * @return number of deleted objects
+     */
+    public int deleteWhere(String predicates, Map<String, Object> params) {
+        return bulkUpdate("deleteWhere", "delete " + fromPersistType(predicates), params);
+    }
+
+    /**
+     * Delete objects of PersistType by their ids without loading them.
+     *
+     * @param ids key properties of objects
+     * @return number of deleted objects
+     * @see #deleteByIds(Collection, int)
+     */
+    public int deleteByIds(Collection<? extends Serializable> ids) {
+        return deleteByIds(ids, DEFAULT_IN_SIZE);
+    }
+
+    /**
+     * Delete objects of PersistType by their ids without loading them. One bulk statement with
+     * an IN condition is executed for every chunk of ids, so databases with a limited number of
+     * parameters per statement are supported. Pending changes of the session are flushed before,
+     * afterwards the session is cleared, so all objects loaded by this session are detached.
+     * Also starts a transaction, if none is active
+     *
+     * @param ids       key properties of objects
+     * @param chunkSize maximum number of ids in one statement
+     * @return number of deleted objects
+     * @throws IllegalArgumentException if chunkSize is not positive
+     */
+    public int deleteByIds(Collection<? extends Serializable> ids, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        String delete = "delete " + fromPersistType("where " + persister().getIdentifierPropertyName()
+                + " in (:ids)");
+        List<? extends Serializable> idList = new ArrayList<>(ids);
+        int deleted = 0;
+        for (int from = 0; from < idList.size(); from += chunkSize) {
+            List<? extends Serializable> chunk = idList.subList(from, Math.min(from + chunkSize, idList.size()));
+            deleted += bulkUpdate("deleteByIds", delete, Collections.singletonMap("ids", chunk));
+        }
+        return deleted;
+    }
+
+    /**
+     * Update all objects of PersistType that match predicates with a single bulk statement,
+     * without loading them. Versions of versioned objects are incremented, so concurrent changes
+     * are still detected. Pending changes of the session are flushed before, afterwards the session
+     * is cleared, so all objects loaded by this session are detached. Hibernate invalidates second
+     * level cache and cached queries for PersistType.
+     * Also starts a transaction, if none is active
+     *
+     * @param setClause  assignments without "set" (e.g. "state = :expired, amount = 0")
+     * @param predicates String with syntactically correct HQL predicates (e.g. "where expires < :now"),
+     *                   attributes are not qualified by an alias
+     * @param params     map of actual parameters with parameter name as key (without :)
+     * @return number of updated objects
+     */
+    public int updateWhere(String setClause, String predicates, Map<String, Object> params) {
+        String update = "update " + (persister().isVersioned() ? "versioned " : "")
+                + accessedType.getCanonicalName() + " set " + setClause
+                + (predicates != null && predicates.length() > 0 ? " " + predicates : "");
+        return bulkUpdate("updateWhere", update, params);
     }
 
     /**
@@ -496,13 +1934,332 @@ public class DaoHibernate<PersistType> {
     }
 
     /**
-     * build getter name for attribute name
+     * fetch the associations of plan for loaded objects
+     *
+     * @param plan    associations to be fetched
+     * @param objects objects loaded by the active session
+     * @return objects
+     */
+    private List<PersistType> applyPlan(FetchPlan plan, List<PersistType> objects) {
+        return measured("fetchPlan", probe -> {
+            plan.load(reader().getActiveSession(), accessedType, persister().getIdentifierPropertyName(),
+                    objects);
+            probe.rows(objects.size());
+            return objects;
+        });
+    }
+
+    /**
+     * fetch the associations of plan for every page of an iterator
+     *
+     * @param plan  associations to be fetched
+     * @param pages iterator on pages
+     * @return iterator on pages with fetched associations
+     */
+    private Iterator<List<PersistType>> withPlan(FetchPlan plan, Iterator<List<PersistType>> pages) {
+        return new Iterator<List<PersistType>>() {
+            @Override
+            public boolean hasNext() {
+                return pages.hasNext();
+            }
+
+            @Override
+            public List<PersistType> next() {
+                return applyPlan(plan, pages.next());
+            }
+        };
+    }
+
+    /**
+     * a read only view loads objects read only and never flushes before a query
+     *
+     * @param query a query of this dao
+     * @param <Q>   type of query
+     * @return the query
+     */
+    private <Q extends Query<?>> Q readMode(Q query) {
+        if (readOnly) {
+            query.setReadOnly(true);
+            query.setHibernateFlushMode(FlushMode.MANUAL);
+        }
+        return query;
+    }
+
+    /**
+     * @return the database for reads, a replica if this dao is a read only view of a group
+     */
+    private DbHibernate reader() {
+        return group == null || !readOnly ? dbHibernate : group.forRead();
+    }
+
+    /**
+     * @return a StatelessSession for reads, on a replica if this dao is a read only view of a group
+     */
+    private StatelessSession openStatelessReader() {
+        return group == null || !readOnly ? dbHibernate.openStatelessSession() : group.openStatelessRead();
+    }
+
+    /**
+     * convert a computed value of a key to the type of the key attribute for binding as parameter
+     *
+     * @param sample a value of the key attribute
+     * @param value  computed value
+     * @return value as object of the same type as sample
+     */
+    private static Object keyValue(Object sample, long value) {
+        if (sample instanceof Long) {
+            return value;
+        } else if (sample instanceof Integer) {
+            return (int) value;
+        } else if (sample instanceof Short) {
+            return (short) value;
+        } else if (sample instanceof BigInteger) {
+            return BigInteger.valueOf(value);
+        } else if (sample instanceof BigDecimal) {
+            return BigDecimal.valueOf(value);
+        }
+        throw new IllegalArgumentException("key must be an integral number, not " + sample.getClass().getName());
+    }
+
+    /**
+     * run a dao operation and measure it. The probe is ended in any case and marks the call
+     * as failed, if the operation throws.
+     *
+     * @param operation name of the dao method for metrics
+     * @param work      the operation, it may count rows and describe its query with the probe
+     * @param <R>       type of the operation's result
+     * @return result of the operation
+     */
+    private <R> R measured(String operation, Function<Probe, R> work) {
+        Probe probe = dbHibernate.probe(accessedType, operation);
+        try {
+            return work.apply(probe);
+        } catch (RuntimeException | Error ex) {
+            probe.failed();
+            throw ex;
+        } finally {
+            probe.end();
+        }
+    }
+
+    /**
+     * run a dao operation without result and measure it
+     *
+     * @param operation name of the dao method for metrics
+     * @param work      the operation, it may count rows and describe its query with the probe
+     * @see #measured(String, Function)
+     */
+    private void measure(String operation, Consumer<Probe> work) {
+        measured(operation, probe -> {
+            work.accept(probe);
+            return null;
+        });
+    }
+
+    /**
+     * reject write operations on read only daos
+     */
+    private void checkWritable() {
+        if (isReadOnly()) {
+            throw new IllegalStateException("dao for " + accessedType.getSimpleName() + " is read only");
+        }
+    }
+
+    /**
+     * Results of queries the dao builds over PersistType are only cached, if PersistType is
+     * cached too. Otherwise every cached query result would cause one query per object to load the objects.
+     *
+     * @return true if query results of this dao should be cached
+     */
+    private boolean isCachingQueries() {
+        return dbHibernate.isQueryCacheEnabled() && persister().canReadFromCache();
+    }
+
+    /**
+     * Results of queries given by the caller are only cached on request.
+     *
+     * @param requested true if the caller asked to cache the result
+     * @return true if the query result should be cached
+     */
+    private boolean isCachingQueries(boolean requested) {
+        return requested && dbHibernate.isQueryCacheEnabled();
+    }
+
+    /**
+     * Run a query in a separate StatelessSession and stream its rows through a forward only cursor.
+     *
+     * @param operation name of the calling operation for metrics
+     * @param query     HQL query
+     * @param fetchSize number of rows the JDBC driver fetches from the database at once
+     * @param row       creates a stream element from the current row
+     * @param <T>       type of stream elements
+     * @return a stream that closes cursor and session at its end or when closed
+     */
+    private <T> Stream<T> scroll(String operation, String query, int fetchSize,
+                                 Function<ScrollableResults, T> row) {
+        return scroll(operation, query, Collections.emptyMap(), fetchSize, row);
+    }
+
+    /**
+     * Run a query with parameters in a separate StatelessSession and stream its rows through
+     * a forward only cursor.
+     *
+     * @param operation name of the calling operation for metrics
+     * @param query     HQL query containing named parameters
+     * @param params    actual parameters with parameter name as key
+     * @param fetchSize number of rows the JDBC driver fetches from the database at once
+     * @param row       creates a stream element from the current row
+     * @param <T>       type of stream elements
+     * @return a stream that closes cursor and session at its end or when closed
+     */
+    private <T> Stream<T> scroll(String operation, String query, Map<String, ?> params, int fetchSize,
+                                 Function<ScrollableResults, T> row) {
+        // only opening the cursor is measured, rows are read by the caller
+        return measured(operation, probe -> {
+            probe.query(query, params);
+            StatelessSession session = openStatelessReader();
+            try {
+                Transaction t = session.getTransaction();
+                if (!t.isActive()) {
+                    t.begin();
+                }
+                Query<?> hibernateQuery = session.createQuery(query);
+                params.forEach(hibernateQuery::setParameter);
+                ScrollableResults scrollableResults = hibernateQuery
+                        .setFetchSize(fetchSize)
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                ScrollSpliterator<T> spliterator = new ScrollSpliterator<>(scrollableResults, row, () -> {
+                    try {
+                        if (t.isActive()) {
+                            t.commit();
+                        }
+                    } finally {
+                        session.close();
+                    }
+                });
+                return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+            } catch (RuntimeException | Error ex) {
+                session.close();
+                throw ex;
+            }
+        });
+    }
+
+    /**
+     * execute a bulk HQL statement between flushing and clearing the session
+     *
+     * @param operation name of the calling operation for metrics
+     * @param statement HQL delete or update statement
+     * @param params    actual parameters with parameter name as key
+     * @return number of affected rows
+     */
+    private int bulkUpdate(String operation, String statement, Map<String, ?> params) {
+        checkWritable();
+        return measured(operation, probe -> {
+            probe.query(statement, params);
+            Session s = dbHibernate.getActiveSession();
+            s.flush();
+            Query<?> query = s.createQuery(statement);
+            params.forEach(query::setParameter);
+            int affected = query.executeUpdate();
+            s.clear();
+            probe.rows(affected);
+            return affected;
+        });
+    }
+
+    /**
+     * build HQL projection query on PersistType
+     *
+     * @param attributes selected attributes or expressions
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @return query "select attributes from PersistType" extended by predicates
+     */
+    private String selectFromPersistType(String[] attributes, String predicates) {
+        if (attributes.length == 0) {
+            throw new IllegalArgumentException("no attributes selected");
+        }
+        return "select " + String.join(", ", attributes) + " " + fromPersistType(predicates);
+    }
+
+    /**
+     * build HQL query on PersistType
+     *
+     * @param predicates String with syntactically correct HQL predicates, may be null or empty
+     * @return basic query "from PersistType" extended by predicates
+     */
+    private String fromPersistType(String predicates) {
+        if (predicates != null && predicates.length() > 0) {
+            predicates = " " + predicates;
+        } else {
+            predicates = "";
+        }
+        return "from " + accessedType.getCanonicalName() + predicates;
+    }
+
+    /**
+     * @return the class of PersistType
+     */
+    @SuppressWarnings("unchecked")
+    private Class<PersistType> persistClass() {
+        return (Class<PersistType>) accessedType;
+    }
+
+    /**
+     * access hibernate's mapping information for PersistType
      *
-     * @param attName name of jpa attribute
-     * @return name of corresponding getter method
+     * @return the entity persister of PersistType
      */
-    private String getterFor(String attName) {
-        return "get" + attName.substring(0, 1).toUpperCase() + attName.substring(1);
+    private EntityPersister persister() {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) dbHibernate.getSessionFactory();
+        return factory.getMetamodel().entityPersister(accessedType);
+    }
+
+    /**
+     * Spliterator on a forward only ScrollableResults. Results and further resources are released
+     * at the end of the results or when the spliterator is closed. Elements may be null,
+     * e.g. values of a nullable column.
+     *
+     * @param <T> type of stream elements created from the rows
+     */
+    private static class ScrollSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        private final ScrollableResults scrollableResults;
+        private final Function<ScrollableResults, T> row;
+        private final Runnable onClose;
+        private boolean closed = false;
+
+        ScrollSpliterator(ScrollableResults scrollableResults, Function<ScrollableResults, T> row,
+                          Runnable onClose) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.scrollableResults = scrollableResults;
+            this.row = row;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) {
+                return false;
+            }
+            if (!scrollableResults.next()) {
+                close();
+                return false;
+            }
+            action.accept(row.apply(scrollableResults));
+            return true;
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    scrollableResults.close();
+                } finally {
+                    onClose.run();
+                }
+            }
+        }
     }
 
 }
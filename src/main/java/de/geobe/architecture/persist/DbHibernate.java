@@ -26,74 +26,627 @@
 
 package de.geobe.architecture.persist;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataBuilder;
 import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.cfgxml.spi.LoadedConfig;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.boot.registry.selector.spi.StrategySelector;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.query.Query;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Manage hibernate database access for a single database. More then one DbHibernate object can be used to
  * connect to different databases. Basic configuration is defined in an xml configuration file
  * (default hibernate.cfg.xml), other files can be passed to the constructor.<br>
  * This is a "heavy weight" object because connectiong to a database is a complex operation. Thus objects of this
- * class should be constructed at program start and closed before its end.
+ * class should be constructed at program start and closed before its end.<br>
+ * Sessions are bound to the calling thread, so one DbHibernate object can safely be shared by many
+ * threads. Every thread works in its own session and transaction. This also holds for virtual threads.
  *
  * @author georg beier
  */
 public class DbHibernate {
 
-    private final SessionFactory sessionFactory;
-    private Session activeSession;
+    /**
+     * size of hibernate's built in connection pool, if not configured
+     */
+    private static final int DEFAULT_POOL_SIZE = 20;
 
     /**
-     *
+     * number of lazy loads of the same association in one session that is reported as N+1 pattern
+     */
+    public static final int DEFAULT_LAZY_LOAD_THRESHOLD = 20;
+
+    private final CompletableFuture<SessionFactory> sessionFactory = new CompletableFuture<>();
+    private final Map<String, Duration> startupTimes = new LinkedHashMap<>();
+    private final ThreadLocal<Session> activeSession = new ThreadLocal<>();
+    private final List<DbSettings> extensions;
+    private final PersistenceMetrics metrics;
+    private final QueryProfiler profiler = new QueryProfiler();
+    private volatile boolean readOnly = false;
+    private volatile boolean readOnlyConnections = false;
+    private AsyncExecutor asyncExecutor;
+    private final Map<String, NamedQuery<?>> namedQueries = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ExampleQueryPlan> examplePlans = new ConcurrentHashMap<>();
+    private final Map<List<Class<?>>, RowMapper<?>> rowMappers = new ConcurrentHashMap<>();
+    private final List<Runnable> closeHooks = new CopyOnWriteArrayList<>();
+    private final List<Runnable> commitListeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final LazyLoadDetector lazyLoadDetector = new LazyLoadDetector(DEFAULT_LAZY_LOAD_THRESHOLD);
+
+    /**
+     * close the session of the calling thread and the session factory.
+     * Sessions still open in other threads are closed by the session factory.
+     * Write behind buffers are flushed before, asynchronous units of work get
+     * {@link AsyncExecutor#CLOSE_TIMEOUT} to complete.
      */
     public void closeDatabase() {
-        closeSession();
-        sessionFactory.close();
+        try {
+            closeHooks.forEach(Runnable::run);
+            closeSession();
+            synchronized (this) {
+                if (asyncExecutor != null) {
+                    asyncExecutor.close();
+                }
+            }
+            metrics.unregisterMBean();
+            // rethrows, if building the session factory in the background failed
+            getSessionFactory().close();
+        } finally {
+            extensions.forEach(DbSettings::close);
+        }
     }
 
     /**
-     * open a session and associate it with a transaction
+     * open a session and bind it to the calling thread
      */
     private Session openSession() {
-        activeSession = sessionFactory.openSession();
-        return activeSession;
+        Session session = getSessionFactory().openSession();
+        if (readOnly) {
+            session.setDefaultReadOnly(true);
+            session.setHibernateFlushMode(FlushMode.MANUAL);
+        }
+        if (metrics.isEnabled()) {
+            session.addEventListeners(metrics.sessionOpened());
+        }
+        if (profiler.isEnabled()) {
+            session.addEventListeners(profiler.sessionOpened(false));
+        }
+        openSessions.incrementAndGet();
+        session.addEventListeners(new BaseSessionEventListener() {
+            @Override
+            public void end() {
+                openSessions.decrementAndGet();
+            }
+        });
+        activeSession.set(session);
+        return session;
     }
 
     /**
-     * close active session and automatically commit open transactions
+     * close active session of the calling thread and automatically commit open transactions
      */
     public void closeSession() {
-        if (activeSession != null && activeSession.isOpen()) {
-            Transaction t = activeSession.getTransaction();
-            if (t.isActive()) {
-                t.commit();
+        endSession(true);
+    }
+
+    /**
+     * run a unit of work in a new session and transaction, using {@link RetryPolicy#DEFAULT}
+     *
+     * @param work unit of work
+     * @param <R>  type of result
+     * @return result of work
+     * @see #inTransaction(Supplier, RetryPolicy)
+     */
+    public <R> R inTransaction(Supplier<R> work) {
+        return inTransaction(work, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * Run a unit of work in a new session and transaction of the calling thread and commit it.
+     * All daos called by work share this session. If work or the commit fail because of a
+     * version conflict (i.e. an object was changed by another thread or process), the transaction
+     * is rolled back and work is run again in a fresh session after a random, exponentially growing
+     * delay, until policy gives up. So work must load the objects it changes itself and must not
+     * commit. Other exceptions are rethrown immediately after rollback.<br>
+     * A session that the calling thread already uses is put aside and restored afterwards.
+     *
+     * @param work   unit of work
+     * @param policy maximum number of attempts and delays between them
+     * @param <R>    type of result
+     * @return result of work
+     */
+    public <R> R inTransaction(Supplier<R> work, RetryPolicy policy) {
+        Session outer = activeSession.get();
+        activeSession.remove();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    getActiveSession();
+                    R result = work.get();
+                    endSession(true);
+                    return result;
+                } catch (RuntimeException ex) {
+                    try {
+                        endSession(false);
+                    } catch (RuntimeException rollbackException) {
+                        ex.addSuppressed(rollbackException);
+                    }
+                    boolean retry = attempt < policy.getMaxAttempts() && DaoHibernate.isStale(ex);
+                    if (DaoHibernate.isStale(ex)) {
+                        metrics.conflict(retry);
+                    }
+                    if (!retry) {
+                        throw ex;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(policy.backoffNanos(attempt));
+                    } catch (InterruptedException iex) {
+                        Thread.currentThread().interrupt();
+                        throw ex;
+                    }
+                }
+            }
+        } finally {
+            if (outer != null) {
+                activeSession.set(outer);
             }
-            activeSession.close();
         }
     }
 
     /**
-     * create a new session if necessary. also start a transaction if necessary.
+     * unbind and close the session of the calling thread. The session is closed even if
+     * the transaction fails.
      *
-     * @return an open session
+     * @param commit true to commit, false to roll back an active transaction
+     */
+    private void endSession(boolean commit) {
+        Session session = activeSession.get();
+        activeSession.remove();
+        if (session != null && session.isOpen()) {
+            try {
+                Transaction t = session.getTransaction();
+                if (t.isActive()) {
+                    if (commit) {
+                        t.commit();
+                    } else {
+                        t.rollback();
+                    }
+                }
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * create a new session for the calling thread if necessary. also start a transaction if necessary.
+     *
+     * @return an open session that is bound to the calling thread
      */
     public Session getActiveSession() {
-        if (activeSession == null || !activeSession.isOpen()) {
-            openSession();
+        Session session = activeSession.get();
+        if (session == null || !session.isOpen()) {
+            session = openSession();
         }
-        Transaction t = activeSession.getTransaction();
+        Transaction t = session.getTransaction();
         if (t == null || !t.isActive()) {
-            activeSession.beginTransaction();
+            t = session.beginTransaction();
+            if (metrics.isEnabled()) {
+                t.registerSynchronization(metrics.transactionStarted());
+            }
+            if (!commitListeners.isEmpty()) {
+                t.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            commitListeners.forEach(Runnable::run);
+                        }
+                    }
+                });
+            }
+            if (readOnly && session.isDefaultReadOnly()) {
+                session.doWork(connection -> connection.setReadOnly(true));
+            } else if (readOnlyConnections) {
+                // pooled connections may still carry the hint from read only mode
+                session.doWork(connection -> connection.setReadOnly(false));
+            }
         }
-        return activeSession;
+        return session;
+    }
+
+    /**
+     * @return true if the calling thread has an open session
+     */
+    boolean hasActiveSession() {
+        Session session = activeSession.get();
+        return session != null && session.isOpen();
+    }
+
+    /**
+     * @return true if the calling thread has an open session with an active transaction
+     */
+    boolean hasActiveTransaction() {
+        Session session = activeSession.get();
+        return session != null && session.isOpen() && session.getTransaction().isActive();
+    }
+
+    /**
+     * @return number of sessions that are open in all threads
+     */
+    int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    /**
+     * run listener in the committing thread after every successful commit of a transaction
+     * started by {@link #getActiveSession()}
+     *
+     * @param listener called after commit
+     */
+    void onCommit(Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Switch this database to read only mode, e.g. for a reporting instance. Sessions opened
+     * afterwards load all objects read only, so no snapshots for dirty checking are kept, and never
+     * flush automatically. JDBC connections get a read only hint at the start of every transaction.
+     * Writing daos are rejected with an IllegalStateException. Sessions already open are not affected.
+     *
+     * @param readOnly true for read only mode
+     */
+    public void setReadOnly(boolean readOnly) {
+        if (readOnly) {
+            readOnlyConnections = true;
+        }
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @return true if this database is in read only mode
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * open a stateless session that is not bound to any thread. Stateless sessions have no
+     * persistence context and are well suited for reading or writing large amounts of data.
+     * The caller is responsible to close it.
+     *
+     * @return a new stateless session
+     */
+    public StatelessSession openStatelessSession() {
+        StatelessSession session = getSessionFactory().openStatelessSession();
+        if (profiler.isEnabled()) {
+            ((SharedSessionContractImplementor) session).getEventListenerManager()
+                    .addListener(profiler.sessionOpened(true));
+        }
+        return session;
+    }
+
+    /**
+     * get the query by example plan for a persistent class of this database, create it if necessary
+     *
+     * @param type a persistent class
+     * @return the plan shared by all daos of this database accessing type
+     */
+    ExampleQueryPlan examplePlan(Class<?> type) {
+        return examplePlans.computeIfAbsent(type, t -> new ExampleQueryPlan(t, getSessionFactory().getMetamodel()));
+    }
+
+    /**
+     * get the mapper for projection rows with the given column types, create it if necessary
+     *
+     * @param resultType  class of result objects
+     * @param columnTypes java types of the selected columns in query order
+     * @param <R>         type of result objects
+     * @return the mapper shared by all daos of this database
+     */
+    @SuppressWarnings("unchecked")
+    <R> RowMapper<R> rowMapper(Class<R> resultType, List<Class<?>> columnTypes) {
+        List<Class<?>> key = new ArrayList<>(columnTypes.size() + 1);
+        key.add(resultType);
+        key.addAll(columnTypes);
+        return (RowMapper<R>) rowMappers.computeIfAbsent(key, k -> new RowMapper<>(resultType, columnTypes));
+    }
+
+    /**
+     * get latency and throughput metrics of all daos and sessions of this database.
+     * Metrics are off by default and must be enabled first.
+     *
+     * @return the metrics of this database
+     */
+    public PersistenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * get the statement profiler of this database that logs slow dao operations and reports
+     * the most expensive SQL statements. It is off by default and must be enabled first.
+     *
+     * @return the query profiler of this database
+     */
+    public QueryProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * start measuring a dao operation
+     *
+     * @param type      persistent class of the dao
+     * @param operation name of the dao method
+     * @return a probe that must be ended
+     */
+    Probe probe(Class<?> type, String operation) {
+        QueryProfiler.Capture capture = profiler.isEnabled() ? profiler.begin(type, operation) : null;
+        try {
+            return metrics.start(type, operation, capture);
+        } catch (RuntimeException | Error ex) {
+            // without a probe nobody would end the capture
+            if (capture != null) {
+                capture.abandon();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * get hit and miss counters of the second level cache regions and the query cache,
+     * if caching was configured. Counters are only maintained while hibernate statistics are on,
+     * e.g. after {@link PersistenceMetrics#setEnabled(boolean)} or with hibernate.generate_statistics.
+     *
+     * @return statistics with region name as key, empty if caching is not used
+     * @see CacheConfiguration
+     */
+    public Map<String, CacheRegionStatistics> getCacheStatistics() {
+        Map<String, CacheRegionStatistics> result = new TreeMap<>();
+        Statistics statistics = getSessionFactory().getStatistics();
+        CacheImplementor cache = (CacheImplementor) getSessionFactory().getCache();
+        for (String region : cache.getCacheRegionNames()) {
+            if (cache.getRegion(region) instanceof QueryResultsRegion) {
+                result.put(region, statistics.getQueryRegionStatistics(region));
+            } else {
+                result.put(region, statistics.getDomainDataRegionStatistics(region));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * register a HQL query under a name. The query is parsed and checked against the result type
+     * at once, so errors show at startup and not when the query is run the first time.
+     * Registering the same query again returns the existing handle. Results are not cached.
+     *
+     * @param name       unique name of the query
+     * @param hql        HQL query string with named parameters (e.g. :name)
+     * @param resultType type of the query results, Object[] for queries that select more than one value
+     * @param <R>        type of the query results
+     * @return a handle to run the query with {@link DaoHibernate#find(NamedQuery, Map)}
+     * @throws IllegalArgumentException if the query is invalid, does not return resultType or if
+     *                                  another query was registered with the same name
+     */
+    public <R> NamedQuery<R> registerQuery(String name, String hql, Class<R> resultType) {
+        return registerQuery(name, hql, resultType, false);
+    }
+
+    /**
+     * register a HQL query under a name, optionally holding its results in the query cache
+     *
+     * @param name       unique name of the query
+     * @param hql        HQL query string with named parameters (e.g. :name)
+     * @param resultType type of the query results, Object[] for queries that select more than one value
+     * @param cacheable  true to hold results in the query cache, if it is configured
+     * @param <R>        type of the query results
+     * @return a handle to run the query with {@link DaoHibernate#find(NamedQuery, Map)}
+     * @throws IllegalArgumentException if the query is invalid, does not return resultType or if
+     *                                  another query was registered with the same name
+     * @see #registerQuery(String, String, Class)
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <R> NamedQuery<R> registerQuery(String name, String hql, Class<R> resultType,
+                                                        boolean cacheable) {
+        NamedQuery<?> registered = namedQueries.get(name);
+        if (registered != null) {
+            if (registered.getHql().equals(hql) && registered.getResultType().equals(resultType)
+                    && registered.isCacheable() == cacheable) {
+                return (NamedQuery<R>) registered;
+            }
+            throw new IllegalArgumentException("another query is registered as " + name);
+        }
+        try (Session session = getSessionFactory().openSession()) {
+            // parses the query into hibernate's query plan cache and checks the result type
+            Query<R> query = session.createQuery(hql, resultType);
+            Map<String, Class<?>> parameters = new LinkedHashMap<>();
+            query.getParameterMetadata().getNamedParameters()
+                    .forEach(parameter -> parameters.put(parameter.getName(), parameter.getParameterType()));
+            getSessionFactory().addNamedQuery(name, query);
+            NamedQuery<R> namedQuery = new NamedQuery<>(name, hql, resultType, parameters, cacheable);
+            namedQueries.put(name, namedQuery);
+            return namedQuery;
+        } catch (HibernateException | IllegalArgumentException ex) {
+            // createQuery reports syntax errors and a wrong result type as IllegalArgumentException
+            throw new IllegalArgumentException("invalid query " + name + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * get a registered query by name
+     *
+     * @param name       name the query was registered with
+     * @param resultType expected type of the query results
+     * @param <R>        type of the query results
+     * @return handle of the registered query
+     * @throws IllegalArgumentException if no query with this name and a matching result type is registered
+     */
+    @SuppressWarnings("unchecked")
+    public <R> NamedQuery<R> getNamedQuery(String name, Class<R> resultType) {
+        NamedQuery<?> registered = namedQueries.get(name);
+        if (registered == null) {
+            throw new IllegalArgumentException("no query registered as " + name);
+        }
+        if (!resultType.isAssignableFrom(registered.getResultType())) {
+            throw new IllegalArgumentException("query " + name + " returns " + registered.getResultType().getName()
+                    + ", not " + resultType.getName());
+        }
+        return (NamedQuery<R>) registered;
+    }
+
+    /**
+     * @return all registered queries with their name as key
+     */
+    public Map<String, NamedQuery<?>> getNamedQueries() {
+        return Collections.unmodifiableMap(namedQueries);
+    }
+
+    /**
+     * get the current figures of the connection pool, if a {@link ConnectionPool} was configured.
+     *
+     * @return figures of the connection pool or null if the pool is not used
+     */
+    public PoolSnapshot getPoolSnapshot() {
+        getSessionFactory();
+        return extensions.stream()
+                .filter(ConnectionPool.class::isInstance)
+                .map(extension -> ((ConnectionPool) extension).getSnapshot())
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * remove all objects and query results from the second level and query caches, e.g. after
+     * changes made by other processes
+     */
+    public void evictCaches() {
+        getSessionFactory().getCache().evictAllRegions();
+    }
+
+    /**
+     * get the executor for asynchronous units of work, create it on first use.
+     * At most as many units of work run at the same time as the connection pool holds connections.
+     *
+     * @return the executor of this database
+     */
+    synchronized AsyncExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            int poolSize = ConfigurationHelper.getInt(AvailableSettings.POOL_SIZE,
+                    getSessionFactory().getProperties(), DEFAULT_POOL_SIZE);
+            asyncExecutor = new AsyncExecutor(poolSize);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Set how often the same collection or entity class may be loaded lazily in one session,
+     * before a possible N+1 select pattern is logged as warning.
+     *
+     * @param threshold number of lazy loads, 0 to switch detection off
+     * @see FetchPlan
+     */
+    public void setLazyLoadThreshold(int threshold) {
+        lazyLoadDetector.setThreshold(threshold);
+    }
+
+    /**
+     * @return number of N+1 select patterns detected so far
+     */
+    public long getLazyLoadWarnings() {
+        return lazyLoadDetector.getWarnings();
+    }
+
+    /**
+     * register work that must be done before the database is closed, e.g. writing buffered objects
+     *
+     * @param hook called by {@link #closeDatabase()} before sessions are closed
+     */
+    void onClose(Runnable hook) {
+        closeHooks.add(hook);
+    }
+
+    /**
+     * remove work registered with {@link #onClose(Runnable)}, e.g. when a buffer was closed before
+     *
+     * @param hook the same instance that was registered
+     */
+    void removeOnClose(Runnable hook) {
+        closeHooks.remove(hook);
+    }
+
+    /**
+     * @return true if query results can be cached
+     */
+    boolean isQueryCacheEnabled() {
+        return getSessionFactory().getSessionFactoryOptions().isQueryCacheEnabled();
+    }
+
+    /**
+     * get the session factory of this database, wait if it is still being built in the background
+     *
+     * @return the session factory of this database
+     */
+    SessionFactory getSessionFactory() {
+        try {
+            return sessionFactory.join();
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("building the session factory failed", ex.getCause());
+        }
+    }
+
+    /**
+     * get the durations of the startup phases: reading the configuration, building the
+     * mapping metadata from the persistent classes and building the session factory, together
+     * with their total. Waits until startup is finished.
+     *
+     * @return durations with phase name as key, in order of execution
+     */
+    public Map<String, Duration> getStartupTimes() {
+        getSessionFactory();
+        return Collections.unmodifiableMap(startupTimes);
     }
 
     public String toString() {
@@ -105,19 +658,125 @@ public class DbHibernate {
     }
 
     public DbHibernate(List<String> fqcns, String resourceName) {
-        StandardServiceRegistryBuilder serviceRegistryBuilder = new StandardServiceRegistryBuilder();
-        if (resourceName.equals("")) {
-            serviceRegistryBuilder.configure();
+        this(fqcns, resourceName, new DbSettings[0]);
+    }
+
+    /**
+     * create a DbHibernate object with additional programmatic configuration
+     *
+     * @param fqcns        fully qualified class names of all persistent classes
+     * @param resourceName name of the xml configuration file, empty for hibernate.cfg.xml
+     * @param extensions   additional settings, e.g. a {@link CacheConfiguration}
+     */
+    public DbHibernate(List<String> fqcns, String resourceName, DbSettings... extensions) {
+        this(fqcns, resourceName, false, extensions);
+    }
+
+    /**
+     * Create a DbHibernate object and optionally build hibernate's session factory in a background
+     * thread. Then the constructor returns immediately and the program can go on with other startup
+     * work. The first operation that needs the session factory, e.g. {@link #getActiveSession()},
+     * waits until it is built. If building fails, these operations throw an IllegalStateException
+     * with the cause.
+     *
+     * @param fqcns        fully qualified class names of all persistent classes
+     * @param resourceName name of the xml configuration file, empty for hibernate.cfg.xml
+     * @param inBackground true to build the session factory in a background thread
+     * @param extensions   additional settings, e.g. a {@link CacheConfiguration}
+     */
+    public DbHibernate(List<String> fqcns, String resourceName, boolean inBackground, DbSettings... extensions) {
+        this.extensions = Arrays.asList(extensions);
+        metrics = new PersistenceMetrics(this::getSessionFactory);
+        if (inBackground) {
+            Thread bootstrap = new Thread(() -> {
+                try {
+                    sessionFactory.complete(buildSessionFactory(fqcns, resourceName));
+                } catch (Throwable t) {
+                    sessionFactory.completeExceptionally(t);
+                }
+            }, "easyHibernate-bootstrap");
+            bootstrap.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+            bootstrap.setDaemon(true);
+            bootstrap.start();
         } else {
-            serviceRegistryBuilder.configure(resourceName);
+            sessionFactory.complete(buildSessionFactory(fqcns, resourceName));
         }
+    }
+
+    /**
+     * read configuration and settings of extensions, build mapping metadata and session factory
+     * and measure their durations. Extensions are closed, if building fails.
+     *
+     * @param fqcns        fully qualified class names of all persistent classes
+     * @param resourceName name of the xml configuration file, empty for hibernate.cfg.xml
+     * @return the session factory
+     */
+    private SessionFactory buildSessionFactory(List<String> fqcns, String resourceName) {
+        long start = System.nanoTime();
+        StandardServiceRegistryBuilder serviceRegistryBuilder = new StandardServiceRegistryBuilder();
+        LoadedConfig loadedConfig = serviceRegistryBuilder.getConfigLoader().loadConfigXmlResource(
+                resourceName.equals("") ? StandardServiceRegistryBuilder.DEFAULT_CFG_RESOURCE_NAME : resourceName);
+        serviceRegistryBuilder.configure(loadedConfig);
+        // merged settings are kept here, extensions see the configuration file and all previous extensions
+        Map<Object, Object> settings = new HashMap<>(Environment.getProperties());
+        Map<?, ?> fileSettings = loadedConfig.getConfigurationValues();
+        settings.putAll(fileSettings);
+        try {
+            for (DbSettings extension : extensions) {
+                Map<String, Object> extensionSettings = extension.settings(fqcns, settings);
+                settings.putAll(extensionSettings);
+                serviceRegistryBuilder.applySettings(extensionSettings);
+            }
+            return buildSessionFactory(fqcns, serviceRegistryBuilder, settings, start);
+        } catch (RuntimeException | Error ex) {
+            // extensions may have started resources like a connection pool that nobody would close
+            extensions.forEach(DbSettings::close);
+            throw ex;
+        }
+    }
+
+    /**
+     * build mapping metadata and session factory from the configured settings
+     *
+     * @param fqcns                  fully qualified class names of all persistent classes
+     * @param serviceRegistryBuilder builder holding all settings
+     * @param settings               the same settings merged into one map
+     * @param start                  start time of the build
+     * @return the session factory
+     */
+    private SessionFactory buildSessionFactory(List<String> fqcns, StandardServiceRegistryBuilder serviceRegistryBuilder,
+                                               Map<Object, Object> settings, long start) {
+        // the profiler sees all SQL and passes it on to an inspector configured by the application
+        Object configuredInspector = settings.get(AvailableSettings.STATEMENT_INSPECTOR);
+        serviceRegistryBuilder.applySetting(AvailableSettings.STATEMENT_INSPECTOR, profiler.inspector());
         ServiceRegistry serviceRegistry = serviceRegistryBuilder.build();
+        if (configuredInspector != null) {
+            profiler.delegateTo(serviceRegistry.getService(StrategySelector.class)
+                    .resolveStrategy(StatementInspector.class, configuredInspector));
+        }
+        long configured = System.nanoTime();
 
         MetadataSources metadataSources = new MetadataSources(serviceRegistry);
         fqcns.forEach(metadataSources::addAnnotatedClassName);
         MetadataBuilder metadataBuilder = metadataSources.getMetadataBuilder();
         Metadata metadata = metadataBuilder.build();
-        sessionFactory = metadata.buildSessionFactory();
+        long mapped = System.nanoTime();
+
+        SessionFactory factory = metadata.buildSessionFactory();
+        EventListenerRegistry listeners = ((SessionFactoryImplementor) factory).getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.INIT_COLLECTION, lazyLoadDetector);
+        listeners.appendListeners(EventType.LOAD, lazyLoadDetector);
+        long built = System.nanoTime();
+        startupTimes.put("configuration", Duration.ofNanos(configured - start));
+        startupTimes.put("metadata", Duration.ofNanos(mapped - configured));
+        startupTimes.put("sessionFactory", Duration.ofNanos(built - mapped));
+        startupTimes.put("total", Duration.ofNanos(built - start));
+        // logging is initialized here, so it does not delay the constructor in background mode
+        Logger logger = LogManager.getLogger(DbHibernate.class);
+        logger.info("started database with {} persistent classes in {} ms {}", fqcns.size(),
+                (built - start) / 1_000_000, startupTimes);
+        return factory;
     }
 
 }
@@ -0,0 +1,374 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A primary database and any number of read replicas, e.g. for scaling reads. Daos created with
+ * {@link DaoHibernate#DaoHibernate(Class, DbHibernateGroup)} send all writes and their own reads to
+ * the primary, so objects that are changed are always loaded from there. Their
+ * {@link DaoHibernate#readOnly() read only views} balance reads over healthy replicas. Replicas are
+ * switched to {@link DbHibernate#setReadOnly(boolean) read only mode}, so their sessions never flush
+ * and load all objects read only. Reads stay on the primary while the calling thread has an
+ * active transaction there, e.g. after a save or within {@link DbHibernate#inTransaction}. With sticky
+ * reads, a thread keeps reading from the primary for a while after its commit, so it sees its own
+ * writes before they reached the replicas.<br>
+ * A thread keeps using the replica of its open session until it commits on the primary or the
+ * session is closed with {@link #closeSession()}. A replica that fails to open a session is ejected
+ * for some time, an optional health check ejects and restores replicas in the background. Reads go
+ * to the primary if no replica is healthy.
+ * <pre>
+ *     DbHibernateGroup group = new DbHibernateGroup(primary, DbHibernateGroup.Balancing.LEAST_LOADED,
+ *             replica1, replica2)
+ *             .stickyReads(Duration.ofSeconds(2))
+ *             .healthCheck(Duration.ofSeconds(5));
+ *     DaoHibernate&lt;Order&gt; orderDao = new DaoHibernate&lt;&gt;(Order.class, group);
+ *     DaoHibernate&lt;Order&gt; orderReader = orderDao.readOnly();
+ * </pre>
+ *
+ * @author georg beier
+ */
+public class DbHibernateGroup implements AutoCloseable {
+
+    /**
+     * how reads are distributed over healthy replicas
+     */
+    public enum Balancing {
+        /**
+         * every replica in turn
+         */
+        ROUND_ROBIN,
+        /**
+         * the replica with the fewest open sessions
+         */
+        LEAST_LOADED
+    }
+
+    private static final Duration DEFAULT_EJECTION = Duration.ofSeconds(30);
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 2;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final DbHibernate primary;
+    private final List<Replica> replicas;
+    private final Balancing balancing;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ThreadLocal<Long> stickyUntil = new ThreadLocal<>();
+    private volatile long stickyNanos = 0;
+    private volatile long ejectionNanos = DEFAULT_EJECTION.toNanos();
+    private ScheduledExecutorService healthChecker;
+
+    /**
+     * create a group of databases that hold the same data
+     *
+     * @param primary   database for all writes
+     * @param balancing how reads are distributed over the replicas
+     * @param replicas  read only copies of the primary database, switched to read only mode
+     */
+    public DbHibernateGroup(DbHibernate primary, Balancing balancing, DbHibernate... replicas) {
+        this.primary = primary;
+        this.balancing = balancing;
+        this.replicas = Arrays.stream(replicas).map(Replica::new).collect(Collectors.toList());
+        this.replicas.forEach(replica -> replica.db.setReadOnly(true));
+        primary.onCommit(() -> {
+            if (stickyNanos > 0) {
+                stickyUntil.set(System.nanoTime() + stickyNanos);
+            }
+            // later reads must not see the replica snapshot from before the commit
+            releaseReplicaSessions();
+        });
+    }
+
+    /**
+     * read from the primary for some time after the calling thread committed a transaction
+     * on the primary, so it sees its own changes. Default is no sticky reads.
+     *
+     * @param duration time after commit, should exceed the replication lag
+     * @return this group
+     */
+    public DbHibernateGroup stickyReads(Duration duration) {
+        stickyNanos = duration.toNanos();
+        return this;
+    }
+
+    /**
+     * set how long a failed replica gets no reads. Default is 30 seconds.
+     * A health check may restore it earlier.
+     *
+     * @param duration time a replica is ejected
+     * @return this group
+     */
+    public DbHibernateGroup ejectFor(Duration duration) {
+        ejectionNanos = duration.toNanos();
+        return this;
+    }
+
+    /**
+     * check all replicas regularly in a background thread. Replicas whose connections are not valid
+     * are ejected, healthy replicas are restored.
+     *
+     * @param interval time between two checks
+     * @return this group
+     * @throws IllegalArgumentException if interval is not positive
+     */
+    public synchronized DbHibernateGroup healthCheck(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("health check interval must be positive: " + interval);
+        }
+        if (healthChecker == null) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "easyHibernate-healthCheck-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long nanos = interval.toNanos();
+            healthChecker.scheduleWithFixedDelay(this::checkReplicas, nanos, nanos, TimeUnit.NANOSECONDS);
+        }
+        return this;
+    }
+
+    public DbHibernate getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return all replicas of this group
+     */
+    public List<DbHibernate> getReplicas() {
+        return Collections.unmodifiableList(replicas.stream().map(replica -> replica.db).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return replicas that currently get reads
+     */
+    public List<DbHibernate> getHealthyReplicas() {
+        long now = System.nanoTime();
+        return replicas.stream().filter(replica -> replica.isHealthy(now)).map(replica -> replica.db)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * close the sessions of the calling thread on all databases of the group and commit
+     * open transactions
+     */
+    public void closeSession() {
+        RuntimeException failure = null;
+        for (Replica replica : replicas) {
+            try {
+                replica.db.closeSession();
+            } catch (RuntimeException rex) {
+                failure = rex;
+            }
+        }
+        primary.closeSession();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * stop the health check and close all databases of the group
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (healthChecker != null) {
+                healthChecker.shutdownNow();
+            }
+        }
+        replicas.forEach(replica -> replica.db.closeDatabase());
+        primary.closeDatabase();
+    }
+
+    /**
+     * end the read only transactions of the calling thread on the replicas and close their sessions,
+     * so the next read starts a new transaction on a current replica snapshot
+     */
+    private void releaseReplicaSessions() {
+        for (Replica replica : replicas) {
+            if (replica.db.hasActiveSession()) {
+                try {
+                    replica.db.closeSession();
+                } catch (RuntimeException ignored) {
+                    // the session is closed anyway and nothing was written
+                }
+            }
+        }
+    }
+
+    /**
+     * choose the database for a read of the calling thread
+     *
+     * @return the primary or a healthy replica that has an open session for the calling thread
+     */
+    DbHibernate forRead() {
+        if (primary.hasActiveTransaction() || isSticky()) {
+            return primary;
+        }
+        long now = System.nanoTime();
+        for (Replica replica : replicas) {
+            if (replica.db.hasActiveSession()) {
+                if (replica.isHealthy(now)) {
+                    return replica.db;
+                }
+                replica.db.closeSession();
+            }
+        }
+        List<Replica> healthy = replicas.stream().filter(replica -> replica.isHealthy(now))
+                .collect(Collectors.toList());
+        while (!healthy.isEmpty()) {
+            Replica chosen = choose(healthy);
+            try {
+                chosen.db.getActiveSession();
+                return chosen.db;
+            } catch (RuntimeException rex) {
+                chosen.eject();
+                healthy.remove(chosen);
+                try {
+                    chosen.db.closeSession();
+                } catch (RuntimeException ignored) {
+                    // the session is closed anyway
+                }
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * open a StatelessSession for a read of the calling thread, that is not bound to the thread.
+     * A replica that fails to start a transaction is ejected and the next healthy replica is tried.
+     *
+     * @return a session with an active transaction on the primary or a healthy replica
+     */
+    StatelessSession openStatelessRead() {
+        if (primary.hasActiveTransaction() || isSticky()) {
+            return primary.openStatelessSession();
+        }
+        long now = System.nanoTime();
+        List<Replica> healthy = replicas.stream().filter(replica -> replica.isHealthy(now))
+                .collect(Collectors.toList());
+        while (!healthy.isEmpty()) {
+            Replica chosen = choose(healthy);
+            StatelessSession session = null;
+            try {
+                session = chosen.db.openStatelessSession();
+                // the connection is acquired here, so a dead replica fails before the session is used
+                session.beginTransaction();
+                return session;
+            } catch (RuntimeException rex) {
+                chosen.eject();
+                healthy.remove(chosen);
+                if (session != null) {
+                    try {
+                        session.close();
+                    } catch (RuntimeException ignored) {
+                        // the session is closed anyway
+                    }
+                }
+            }
+        }
+        return primary.openStatelessSession();
+    }
+
+    private boolean isSticky() {
+        Long until = stickyUntil.get();
+        if (until == null) {
+            return false;
+        }
+        if (System.nanoTime() - until < 0) {
+            return true;
+        }
+        stickyUntil.remove();
+        return false;
+    }
+
+    private Replica choose(List<Replica> healthy) {
+        int start = Math.floorMod(next.getAndIncrement(), healthy.size());
+        if (balancing == Balancing.ROUND_ROBIN) {
+            return healthy.get(start);
+        }
+        Replica least = null;
+        for (int i = 0; i < healthy.size(); i++) {
+            Replica replica = healthy.get((start + i) % healthy.size());
+            if (least == null || replica.db.getOpenSessions() < least.db.getOpenSessions()) {
+                least = replica;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * validate a connection of every replica. Runs in the background thread.
+     */
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean valid;
+            try (Session session = replica.db.getSessionFactory().openSession()) {
+                valid = session.doReturningWork(connection -> connection.isValid(HEALTH_CHECK_TIMEOUT_SECONDS));
+            } catch (RuntimeException rex) {
+                valid = false;
+            }
+            if (valid) {
+                replica.ejectedUntil = 0;
+            } else {
+                replica.eject();
+            }
+        }
+    }
+
+    /**
+     * a replica and its health
+     */
+    private class Replica {
+        private final DbHibernate db;
+        private volatile long ejectedUntil = 0;
+
+        Replica(DbHibernate db) {
+            this.db = db;
+        }
+
+        boolean isHealthy(long now) {
+            long until = ejectedUntil;
+            return until == 0 || now - until >= 0;
+        }
+
+        void eject() {
+            ejectedUntil = System.nanoTime() + ejectionNanos;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Programmatic configuration that is added to the xml configuration file of a {@link DbHibernate}.
+ * Settings override properties of the configuration file with the same name.
+ *
+ * @author georg beier
+ */
+public interface DbSettings {
+
+    /**
+     * provide hibernate settings, called once when the DbHibernate object is constructed
+     *
+     * @param fqcns fully qualified class names of all persistent classes
+     * @return hibernate settings with property name as key
+     */
+    Map<String, Object> settings(List<String> fqcns);
+
+    /**
+     * provide hibernate settings that depend on the settings read from the configuration file,
+     * called once when the DbHibernate object is constructed
+     *
+     * @param fqcns      fully qualified class names of all persistent classes
+     * @param configured settings from the configuration file and from previous extensions
+     * @return hibernate settings with property name as key
+     */
+    default Map<String, Object> settings(List<String> fqcns, Map<?, ?> configured) {
+        return settings(fqcns);
+    }
+
+    /**
+     * release resources, called after the DbHibernate object closed its session factory
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.query.Query;
+
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Query by example support for one persistent class. Accessors for all single valued attributes of the
+ * class are resolved only once as MethodHandles. The HQL query for every combination of not null
+ * attributes of a sample object is also built only once, so hibernate's query plan cache can reuse
+ * the parsed query. Plans are kept by {@link DbHibernate} and shared by all daos of a database
+ * accessing the same class.
+ *
+ * @author georg beier
+ */
+class ExampleQueryPlan {
+
+    private static final MethodType accessorType = MethodType.methodType(Object.class, Object.class);
+
+    private final String entityName;
+    private final List<String> attributeNames = new ArrayList<>();
+    private final List<MethodHandle> accessors = new ArrayList<>();
+    private final Map<String, String> queries = new ConcurrentHashMap<>();
+
+    /**
+     * create the plan for a persistent class
+     *
+     * @param accessedType a persistent class
+     * @param metamodel    jpa metamodel that knows the class
+     */
+    ExampleQueryPlan(Class<?> accessedType, Metamodel metamodel) {
+        entityName = accessedType.getCanonicalName();
+        // a list of directly accessible field names of sample objects
+        List<String> fieldNames = Arrays.stream(accessedType.getFields()).
+                map(Field::getName).collect(Collectors.toList());
+        // a list of all accessible getter method names of sample objects
+        List<String> getterNames = Arrays.stream(accessedType.getMethods()).
+                filter(method ->
+                        method.getName().startsWith("get") && method.getParameterCount() == 0
+                ).map(Method::getName).collect(Collectors.toList());
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        // loop over all singular attributes in the inheritance chain of entities
+        IdentifiableType<?> parent = metamodel.entity(accessedType);
+        while (parent != null) {
+            for (SingularAttribute<?, ?> attribute : parent.getDeclaredSingularAttributes()) {
+                String attName = attribute.getName();
+                if (attribute.getJavaType().isArray()) {
+                    continue;
+                }
+                try {
+                    MethodHandle accessor = null;
+                    // direct field access possible?
+                    if (fieldNames.contains(attName)) {
+                        accessor = lookup.unreflectGetter(accessedType.getField(attName));
+                    } else if (getterNames.contains(getterFor(attName))) {
+                        // there is a getter method?
+                        accessor = lookup.unreflect(accessedType.getMethod(getterFor(attName)));
+                    }
+                    if (accessor != null) {
+                        attributeNames.add(attName);
+                        accessors.add(accessor.asType(accessorType));
+                    }
+                } catch (NoSuchFieldException | IllegalAccessException | NoSuchMethodException e) {
+                    // should be impossible for public fields and getters found above
+                    throw new IllegalStateException("cannot access attribute " + attName
+                            + " of " + entityName, e);
+                }
+            }
+            parent = parent.getSupertype();
+        }
+    }
+
+    /**
+     * collect the values of a sample object and find the matching query
+     *
+     * @param sample   a sample object
+     * @param excluded properties not considered im matching
+     * @return query and parameters for this sample
+     */
+    Example bind(Object sample, Collection<String> excluded) {
+        StringBuilder key = new StringBuilder();
+        List<Object> values = new ArrayList<>();
+        List<String> parameters = new ArrayList<>();
+        for (int i = 0; i < accessors.size(); i++) {
+            if (excluded.contains(attributeNames.get(i))) {
+                continue;
+            }
+            Object val;
+            try {
+                val = (Object) accessors.get(i).invokeExact(sample);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable t) {
+                throw new IllegalStateException("cannot read attribute " + attributeNames.get(i)
+                        + " of " + entityName, t);
+            }
+            // only consider fields that are neither NULL nor 0
+            if (!(val == null || (val instanceof Number && ((Number) val).longValue() == 0))) {
+                // String properties are matched with like, all others with equal
+                key.append(i).append(val instanceof String ? 'l' : 'e').append(',');
+                values.add(val);
+                parameters.add("p" + i);
+            }
+        }
+        return new Example(key.toString(), parameters, values);
+    }
+
+    /**
+     * build the where clause for a combination of attributes
+     *
+     * @param key encoded combination of attributes and comparison operators
+     * @return HQL where clause using alias e for the entity or an empty string
+     */
+    private String whereClause(String key) {
+        if (key.isEmpty()) {
+            return "";
+        }
+        List<String> predicates = new ArrayList<>();
+        for (String term : key.split(",")) {
+            int index = Integer.parseInt(term.substring(0, term.length() - 1));
+            String operator = term.endsWith("l") ? " like " : " = ";
+            predicates.add("e." + attributeNames.get(index) + operator + ":p" + index);
+        }
+        return " where " + String.join(" and ", predicates);
+    }
+
+    /**
+     * build getter name for attribute name
+     *
+     * @param attName name of jpa attribute
+     * @return name of corresponding getter method
+     */
+    private static String getterFor(String attName) {
+        return "get" + attName.substring(0, 1).toUpperCase() + attName.substring(1);
+    }
+
+    /**
+     * Values of a sample object together with the matching query
+     */
+    class Example {
+        private final String key;
+        private final List<String> parameters;
+        private final List<Object> values;
+
+        private Example(String key, List<String> parameters, List<Object> values) {
+            this.key = key;
+            this.parameters = parameters;
+            this.values = values;
+        }
+
+        /**
+         * get the cached HQL query for this combination of attributes
+         *
+         * @param selection prefix of the query before the from clause, e.g. "select count(e) "
+         * @return HQL query string
+         */
+        String query(String selection) {
+            Function<String, String> build = k -> selection + "from " + entityName + " e" + whereClause(key);
+            return queries.computeIfAbsent(selection + '|' + key, build);
+        }
+
+        /**
+         * bind the sample values to the query parameters
+         *
+         * @param query a query created from {@link #query(String)}
+         * @param <Q>   type of query
+         * @return the query
+         */
+        <Q extends Query<?>> Q bind(Q query) {
+            for (int i = 0; i < parameters.size(); i++) {
+                query.setParameter(parameters.get(i), values.get(i));
+            }
+            return query;
+        }
+    }
+}
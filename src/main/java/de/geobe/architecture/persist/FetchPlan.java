@@ -0,0 +1,239 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.Session;
+
+import javax.persistence.AttributeNode;
+import javax.persistence.EntityGraph;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Subgraph;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Associations that should be loaded together with the objects returned by a dao method, to avoid
+ * N+1 selects when lazy associations are followed later. The plan is given either as names of
+ * associations, where paths like "lines.product" reach further, or as the name of a JPA entity
+ * graph defined on the persistent class.<br>
+ * After the objects are loaded, every top level association is fetched in a separate query that
+ * join fetches the whole path for up to batchSize objects at once. So no cartesian product of
+ * several collections is built and the plan also works with paged queries.
+ *
+ * @author georg beier
+ */
+public class FetchPlan {
+
+    /**
+     * default number of objects whose associations are fetched in one query
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final String graphName;
+    private final List<String> paths;
+    private final int batchSize;
+
+    private FetchPlan(String graphName, List<String> paths, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.graphName = graphName;
+        this.paths = paths;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * plan that fetches the attributes of a named JPA entity graph
+     *
+     * @param graphName name of an entity graph, e.g. from a NamedEntityGraph annotation
+     * @return a new plan
+     */
+    public static FetchPlan graph(String graphName) {
+        return new FetchPlan(graphName, Collections.emptyList(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * plan that fetches associations given by their names
+     *
+     * @param paths names of associations, nested associations separated by dots (e.g. "lines.product")
+     * @return a new plan
+     */
+    public static FetchPlan attributes(String... paths) {
+        return new FetchPlan(null, Arrays.asList(paths), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize maximum number of objects whose associations are fetched in one query
+     * @return a copy of this plan with another batch size
+     */
+    public FetchPlan batchSize(int batchSize) {
+        return new FetchPlan(graphName, paths, batchSize);
+    }
+
+    /**
+     * @return maximum number of objects whose associations are fetched in one query
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * fetch the associations of this plan for objects that are managed by session
+     *
+     * @param session      session that loaded the objects
+     * @param accessedType persistent class of the objects
+     * @param idName       name of the id attribute of accessedType
+     * @param objects      objects loaded by a dao method
+     */
+    void load(Session session, Class<?> accessedType, String idName, List<?> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+        PersistenceUnitUtil util = session.getSessionFactory().getPersistenceUnitUtil();
+        List<Object> ids = new ArrayList<>(objects.size());
+        for (Object obj : objects) {
+            ids.add(util.getIdentifier(obj));
+        }
+        for (String query : fetchQueries(session, accessedType, idName)) {
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                session.createQuery(query)
+                        .setParameterList("ids", ids.subList(from, Math.min(from + batchSize, ids.size())))
+                        .list();
+            }
+        }
+    }
+
+    /**
+     * build one join fetch query for every top level association of this plan
+     */
+    private List<String> fetchQueries(Session session, Class<?> accessedType, String idName) {
+        List<String> queries = new ArrayList<>();
+        List<String> associations = new ArrayList<>();
+        for (String path : resolvePaths(session)) {
+            String association = associationPath(session.getMetamodel().managedType(accessedType), path);
+            if (!association.isEmpty()) {
+                associations.add(association);
+            }
+        }
+        for (List<String> tree : groupByTopLevel(associations)) {
+            StringBuilder query = new StringBuilder("select e from ")
+                    .append(accessedType.getCanonicalName()).append(" e");
+            List<String> joined = new ArrayList<>();
+            for (String path : tree) {
+                String[] segments = path.split("\\.");
+                String alias = "e";
+                for (int i = 0; i < segments.length; i++) {
+                    String joinPath = String.join("_", Arrays.asList(segments).subList(0, i + 1));
+                    if (!joined.contains(joinPath)) {
+                        query.append(" left join fetch ").append(alias).append('.').append(segments[i])
+                                .append(" j_").append(joinPath);
+                        joined.add(joinPath);
+                    }
+                    alias = "j_" + joinPath;
+                }
+            }
+            queries.add(query.append(" where e.").append(idName).append(" in (:ids)").toString());
+        }
+        return queries;
+    }
+
+    /**
+     * @return attribute paths of this plan, taken from the entity graph if given
+     */
+    private List<String> resolvePaths(Session session) {
+        if (graphName == null) {
+            return paths;
+        }
+        EntityGraph<?> graph = session.getEntityGraph(graphName);
+        List<String> graphPaths = new ArrayList<>();
+        collectPaths("", graph.getAttributeNodes(), graphPaths);
+        return graphPaths;
+    }
+
+    private static void collectPaths(String prefix, List<AttributeNode<?>> nodes, List<String> paths) {
+        for (AttributeNode<?> node : nodes) {
+            String path = prefix + node.getAttributeName();
+            List<AttributeNode<?>> children = new ArrayList<>();
+            for (Object subgraph : node.getSubgraphs().values()) {
+                children.addAll(((Subgraph<?>) subgraph).getAttributeNodes());
+            }
+            if (children.isEmpty()) {
+                paths.add(path);
+            } else {
+                collectPaths(path + ".", children, paths);
+            }
+        }
+    }
+
+    /**
+     * shorten a path to its associations, basic attributes can not be join fetched
+     *
+     * @param type managed type where path starts
+     * @param path attribute names separated by dots
+     * @return leading part of path that consists of associations, may be empty
+     */
+    private static String associationPath(ManagedType<?> type, String path) {
+        List<String> associations = new ArrayList<>();
+        for (String segment : path.split("\\.")) {
+            Attribute<?, ?> attribute = type.getAttribute(segment);
+            if (!attribute.isAssociation()) {
+                break;
+            }
+            associations.add(segment);
+            Type<?> target = attribute instanceof PluralAttribute
+                    ? ((PluralAttribute<?, ?, ?>) attribute).getElementType()
+                    : ((SingularAttribute<?, ?>) attribute).getType();
+            if (!(target instanceof ManagedType)) {
+                break;
+            }
+            type = (ManagedType<?>) target;
+        }
+        return String.join(".", associations);
+    }
+
+    private static List<List<String>> groupByTopLevel(List<String> paths) {
+        Map<String, List<String>> trees = new LinkedHashMap<>();
+        for (String path : paths) {
+            trees.computeIfAbsent(path.split("\\.")[0], top -> new ArrayList<>()).add(path);
+        }
+        return new ArrayList<>(trees.values());
+    }
+
+    public String toString() {
+        return "(fetch: " + (graphName != null ? "graph " + graphName : paths) + ", batch: " + batchSize + ")";
+    }
+}
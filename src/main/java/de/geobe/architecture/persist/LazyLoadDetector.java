@@ -0,0 +1,128 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.event.spi.InitializeCollectionEventListener;
+import org.hibernate.event.spi.LoadEvent;
+import org.hibernate.event.spi.LoadEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects N+1 select patterns at runtime. Counts how often the same collection role or entity
+ * class is loaded lazily within one session, i.e. a collection is initialized or a proxy is loaded
+ * on first access. When a count reaches the threshold, a warning is logged once per session.
+ * Counters are kept per thread, so no synchronization is needed.
+ *
+ * @author georg beier
+ */
+class LazyLoadDetector implements InitializeCollectionEventListener, LoadEventListener {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LogManager.getLogger(LazyLoadDetector.class);
+
+    private final transient ThreadLocal<SessionCounts> counts = ThreadLocal.withInitial(SessionCounts::new);
+    private final LongAdder warnings = new LongAdder();
+    private volatile int threshold;
+
+    /**
+     * @param threshold number of lazy loads of the same kind in one session that are reported, 0 to switch off
+     */
+    LazyLoadDetector(int threshold) {
+        this.threshold = threshold;
+    }
+
+    void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return number of detected N+1 patterns
+     */
+    long getWarnings() {
+        return warnings.sum();
+    }
+
+    @Override
+    public void onInitializeCollection(InitializeCollectionEvent event) throws HibernateException {
+        record(event.getSession().getSessionIdentifier(), true, event.getCollection().getRole());
+    }
+
+    @Override
+    public void onLoad(LoadEvent event, LoadType loadType) throws HibernateException {
+        if (loadType == LoadEventListener.IMMEDIATE_LOAD) {
+            record(event.getSession().getSessionIdentifier(), false, event.getEntityClassName());
+        }
+    }
+
+    /**
+     * count a lazy load, role and entity names are used as they are, so nothing is built per load
+     *
+     * @param session    identifier of the loading session
+     * @param collection true for a collection role, false for an entity name
+     * @param loaded     collection role or entity name
+     */
+    private void record(UUID session, boolean collection, String loaded) {
+        int limit = threshold;
+        if (limit <= 0) {
+            return;
+        }
+        SessionCounts sessionCounts = counts.get();
+        if (!session.equals(sessionCounts.session)) {
+            sessionCounts.session = session;
+            sessionCounts.collections.clear();
+            sessionCounts.entities.clear();
+        }
+        Map<String, Integer> loads = collection ? sessionCounts.collections : sessionCounts.entities;
+        if (loads.merge(loaded, 1, Integer::sum) == limit) {
+            warnings.increment();
+            logger.warn("possible N+1 selects: {} {} loaded lazily {} times in one session, "
+                    + "consider a FetchPlan", collection ? "collection" : "entity", loaded, limit);
+        }
+    }
+
+    /**
+     * lazy loads of the last session used by a thread
+     */
+    private static class SessionCounts {
+        private UUID session;
+        private final Map<String, Integer> collections = new HashMap<>();
+        private final Map<String, Integer> entities = new HashMap<>();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.stat.Statistics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Figures of all dao operations and sessions of a {@link DbHibernate} object at the time the snapshot
+ * was taken, together with selected hibernate statistics. Durations are given in microseconds.
+ *
+ * @author georg beier
+ */
+public class MetricsSnapshot {
+
+    private final List<OperationSnapshot> operations;
+    private final long sessionsOpened;
+    private final long openSessions;
+    private final long transactions;
+    private final long transactionMeanMicros;
+    private final long transactionP50Micros;
+    private final long transactionP99Micros;
+    private final long transactionMaxMicros;
+    private final long conflicts;
+    private final long retries;
+    private final long flushes;
+    private final long entityLoads;
+    private final long entityFetches;
+    private final long queryExecutions;
+    private final long queryExecutionMaxMillis;
+    private final long preparedStatements;
+    private final long queryPlanCacheHits;
+    private final long queryPlanCacheMisses;
+
+    MetricsSnapshot(List<OperationSnapshot> operations, long sessionsOpened, long sessionsClosed,
+                    LatencyHistogram transactionLatency, long conflicts, long retries, Statistics statistics) {
+        this.operations = Collections.unmodifiableList(operations);
+        this.sessionsOpened = sessionsOpened;
+        this.openSessions = sessionsOpened - sessionsClosed;
+        this.transactions = transactionLatency.getCount();
+        this.transactionMeanMicros = transactionLatency.getMeanMicros();
+        this.transactionP50Micros = transactionLatency.getPercentileMicros(50);
+        this.transactionP99Micros = transactionLatency.getPercentileMicros(99);
+        this.transactionMaxMicros = transactionLatency.getMaxMicros();
+        this.conflicts = conflicts;
+        this.retries = retries;
+        this.flushes = statistics.getFlushCount();
+        this.entityLoads = statistics.getEntityLoadCount();
+        this.entityFetches = statistics.getEntityFetchCount();
+        this.queryExecutions = statistics.getQueryExecutionCount();
+        this.queryExecutionMaxMillis = statistics.getQueryExecutionMaxTime();
+        this.preparedStatements = statistics.getPrepareStatementCount();
+        this.queryPlanCacheHits = statistics.getQueryPlanCacheHitCount();
+        this.queryPlanCacheMisses = statistics.getQueryPlanCacheMissCount();
+    }
+
+    /**
+     * @return figures of all dao operations that were called since metrics were enabled
+     */
+    public List<OperationSnapshot> getOperations() {
+        return operations;
+    }
+
+    public long getSessionsOpened() {
+        return sessionsOpened;
+    }
+
+    public long getOpenSessions() {
+        return openSessions;
+    }
+
+    /**
+     * @return number of completed transactions
+     */
+    public long getTransactions() {
+        return transactions;
+    }
+
+    public long getTransactionMeanMicros() {
+        return transactionMeanMicros;
+    }
+
+    public long getTransactionP50Micros() {
+        return transactionP50Micros;
+    }
+
+    public long getTransactionP99Micros() {
+        return transactionP99Micros;
+    }
+
+    public long getTransactionMaxMicros() {
+        return transactionMaxMicros;
+    }
+
+    /**
+     * @return number of version conflicts in units of work run by {@link DbHibernate#inTransaction}
+     */
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return number of units of work that were run again after a conflict
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getEntityLoads() {
+        return entityLoads;
+    }
+
+    public long getEntityFetches() {
+        return entityFetches;
+    }
+
+    public long getQueryExecutions() {
+        return queryExecutions;
+    }
+
+    public long getQueryExecutionMaxMillis() {
+        return queryExecutionMaxMillis;
+    }
+
+    public long getPreparedStatements() {
+        return preparedStatements;
+    }
+
+    /**
+     * @return number of queries that were run without parsing the query string again
+     */
+    public long getQueryPlanCacheHits() {
+        return queryPlanCacheHits;
+    }
+
+    /**
+     * @return number of query strings that had to be parsed
+     */
+    public long getQueryPlanCacheMisses() {
+        return queryPlanCacheMisses;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("(sessions: ").append(openSessions).append(" open, ").append(sessionsOpened).append(" opened)")
+                .append("(transactions: ").append(transactions).append(", p50: ").append(transactionP50Micros)
+                .append("us, p99: ").append(transactionP99Micros).append("us, max: ")
+                .append(transactionMaxMicros).append("us)")
+                .append("(conflicts: ").append(conflicts).append(", retries: ").append(retries).append(")")
+                .append("(flushes: ").append(flushes).append(", entity loads: ").append(entityLoads)
+                .append(", queries: ").append(queryExecutions).append(")")
+                .append("(query plans: ").append(queryPlanCacheHits).append(" hits, ")
+                .append(queryPlanCacheMisses).append(" misses)");
+        operations.forEach(operation -> sb.append("\n").append(operation));
+        return sb.toString();
+    }
+}
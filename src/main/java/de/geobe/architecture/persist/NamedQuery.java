@@ -0,0 +1,98 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Handle of a HQL query that was registered and validated once with
+ * {@link DbHibernate#registerQuery(String, String, Class)}. Running a registered query
+ * with {@link DaoHibernate#find(NamedQuery, Map)} reuses hibernate's parsed query plan
+ * and the database's prepared statement, because the query string never changes.
+ * Values are always bound to named parameters, never concatenated into the query.
+ *
+ * @param <R> type of the query results
+ * @author georg beier
+ */
+public class NamedQuery<R> {
+
+    private final String name;
+    private final String hql;
+    private final Class<R> resultType;
+    private final Map<String, Class<?>> parameters;
+    private final boolean cacheable;
+
+    NamedQuery(String name, String hql, Class<R> resultType, Map<String, Class<?>> parameters,
+               boolean cacheable) {
+        this.name = name;
+        this.hql = hql;
+        this.resultType = resultType;
+        this.parameters = Collections.unmodifiableMap(parameters);
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * @return name the query was registered with
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return HQL query string
+     */
+    public String getHql() {
+        return hql;
+    }
+
+    /**
+     * @return type of the query results, Object[] for queries that select more than one value
+     */
+    public Class<R> getResultType() {
+        return resultType;
+    }
+
+    /**
+     * @return names of the named parameters with their expected types, type is null if
+     * hibernate could not infer it from the query
+     */
+    public Map<String, Class<?>> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return true if results are held in the query cache, if it is configured
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public String toString() {
+        return name + "(" + hql + ")";
+    }
+}
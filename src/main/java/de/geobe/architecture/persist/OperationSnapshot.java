@@ -0,0 +1,122 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+/**
+ * Figures of one dao operation on one persistent class at the time the snapshot was taken.
+ * Durations are given in microseconds.
+ *
+ * @author georg beier
+ */
+public class OperationSnapshot {
+
+    private final String entity;
+    private final String operation;
+    private final long calls;
+    private final long errors;
+    private final long stale;
+    private final long rows;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    OperationSnapshot(String entity, String operation, long calls, long errors, long stale, long rows,
+                      LatencyHistogram latency) {
+        this.entity = entity;
+        this.operation = operation;
+        this.calls = calls;
+        this.errors = errors;
+        this.stale = stale;
+        this.rows = rows;
+        this.meanMicros = latency.getMeanMicros();
+        this.p50Micros = latency.getPercentileMicros(50);
+        this.p99Micros = latency.getPercentileMicros(99);
+        this.maxMicros = latency.getMaxMicros();
+    }
+
+    /**
+     * @return fully qualified class name of the persistent class
+     */
+    public String getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return name of the dao method
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return number of calls that threw an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return number of objects that were found "stale"
+     */
+    public long getStale() {
+        return stale;
+    }
+
+    /**
+     * @return number of objects returned or written, not counted for iterators and streams
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public String toString() {
+        return entity + "." + operation + "(calls: " + calls + ", errors: " + errors + ", stale: " + stale
+                + ", rows: " + rows + ", p50: " + p50Micros + "us, p99: " + p99Micros + "us, max: "
+                + maxMicros + "us)";
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.SessionEventListener;
+import org.hibernate.SessionFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.transaction.Synchronization;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Latency and throughput metrics of all daos and sessions of one {@link DbHibernate} object.
+ * Every dao operation records number of calls, errors, stale objects and rows together with
+ * a latency histogram, grouped by persistent class. Metrics are off by default. When they are off,
+ * daos only check a flag, so overhead is near zero.<br>
+ * Figures are available as {@link MetricsSnapshot} and can be published by JMX.
+ *
+ * @author georg beier
+ */
+public class PersistenceMetrics implements PersistenceMetricsMXBean {
+
+    private final Supplier<SessionFactory> sessionFactory;
+    private final Map<Class<?>, Map<String, OperationMetrics>> operations = new ConcurrentHashMap<>();
+    private final LongAdder sessionsOpened = new LongAdder();
+    private final LongAdder sessionsClosed = new LongAdder();
+    private final LatencyHistogram transactionLatency = new LatencyHistogram();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private volatile boolean enabled = false;
+    private ObjectName objectName;
+
+    PersistenceMetrics(Supplier<SessionFactory> sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * switch metrics on or off. Switching on also enables hibernate statistics.
+     *
+     * @param enabled true to record metrics
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            sessionFactory.get().getStatistics().setStatisticsEnabled(true);
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return current figures
+     */
+    @Override
+    public MetricsSnapshot getSnapshot() {
+        List<OperationSnapshot> operationSnapshots = new ArrayList<>();
+        operations.forEach((type, byName) -> byName.forEach((name, metrics) ->
+                operationSnapshots.add(metrics.snapshot(type.getName(), name))));
+        operationSnapshots.sort(Comparator.comparing(OperationSnapshot::getEntity)
+                .thenComparing(OperationSnapshot::getOperation));
+        return new MetricsSnapshot(operationSnapshots, sessionsOpened.sum(), sessionsClosed.sum(),
+                transactionLatency, conflicts.sum(), retries.sum(), sessionFactory.get().getStatistics());
+    }
+
+    /**
+     * clear all figures including hibernate statistics
+     */
+    @Override
+    public void reset() {
+        operations.clear();
+        sessionsOpened.reset();
+        sessionsClosed.reset();
+        transactionLatency.reset();
+        conflicts.reset();
+        retries.reset();
+        sessionFactory.get().getStatistics().clear();
+    }
+
+    /**
+     * publish metrics as MXBean in the platform MBean server with object name
+     * de.geobe.architecture.persist:type=PersistenceMetrics,name=<i>name</i>
+     *
+     * @param name name that identifies the DbHibernate object
+     */
+    public synchronized void registerMBean(String name) {
+        unregisterMBean();
+        try {
+            ObjectName objectName = new ObjectName(
+                    "de.geobe.architecture.persist:type=PersistenceMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("cannot register metrics as " + name, ex);
+        }
+    }
+
+    /**
+     * remove metrics from the platform MBean server, if they were registered
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                // already gone, nothing left to do
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * start measuring a dao operation
+     *
+     * @param type      persistent class of the dao
+     * @param operation name of the dao method
+     * @param capture   profile of the call's statements, null if the query profiler is off
+     * @return a probe that must be ended, a no-op probe if metrics and profiler are off
+     */
+    Probe start(Class<?> type, String operation, QueryProfiler.Capture capture) {
+        if (!enabled) {
+            return capture == null ? Probe.NONE : new Probe(null, capture);
+        }
+        return new Probe(operations
+                .computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(operation, o -> new OperationMetrics()), capture);
+    }
+
+    /**
+     * count a new session
+     *
+     * @return a listener to be added to the session that counts its closing
+     */
+    SessionEventListener sessionOpened() {
+        sessionsOpened.increment();
+        return new BaseSessionEventListener() {
+            @Override
+            public void end() {
+                sessionsClosed.increment();
+            }
+        };
+    }
+
+    /**
+     * start measuring a transaction
+     *
+     * @return a synchronization to be registered with the transaction
+     */
+    Synchronization transactionStarted() {
+        long started = System.nanoTime();
+        return new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                transactionLatency.record(System.nanoTime() - started);
+            }
+        };
+    }
+
+    /**
+     * count a version conflict of a unit of work
+     *
+     * @param retried true if the unit of work is run again
+     */
+    void conflict(boolean retried) {
+        if (enabled) {
+            conflicts.increment();
+            if (retried) {
+                retries.increment();
+            }
+        }
+    }
+
+    /**
+     * Figures of one dao operation on one persistent class
+     */
+    static class OperationMetrics {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder stale = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long nanos, long rowCount, long staleCount, boolean failed) {
+            calls.increment();
+            latency.record(nanos);
+            if (rowCount != 0) {
+                rows.add(rowCount);
+            }
+            if (staleCount != 0) {
+                stale.add(staleCount);
+            }
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        OperationSnapshot snapshot(String entity, String operation) {
+            return new OperationSnapshot(entity, operation, calls.sum(), errors.sum(), stale.sum(), rows.sum(),
+                    latency);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+/**
+ * Figures of a {@link ConnectionPool} at the time the snapshot was taken.
+ * Wait times are the times threads waited to get a connection from the pool, given in microseconds.
+ *
+ * @author georg beier
+ */
+public class PoolSnapshot {
+
+    private final int active;
+    private final int idle;
+    private final int total;
+    private final int waiting;
+    private final long acquisitions;
+    private final long timeouts;
+    private final long waitP50Micros;
+    private final long waitP99Micros;
+    private final long waitMaxMicros;
+    private final long usageP99Micros;
+
+    PoolSnapshot(int active, int idle, int total, int waiting, long timeouts,
+                 LatencyHistogram wait, LatencyHistogram usage) {
+        this.active = active;
+        this.idle = idle;
+        this.total = total;
+        this.waiting = waiting;
+        this.acquisitions = wait.getCount();
+        this.timeouts = timeouts;
+        this.waitP50Micros = wait.getPercentileMicros(50);
+        this.waitP99Micros = wait.getPercentileMicros(99);
+        this.waitMaxMicros = wait.getMaxMicros();
+        this.usageP99Micros = usage.getPercentileMicros(99);
+    }
+
+    /**
+     * @return number of connections currently used by sessions
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * @return number of open connections ready for use
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return number of open connections, active and idle
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of threads currently waiting for a connection
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return number of connections handed out by the pool
+     */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * @return number of requests that got no connection within the connection timeout
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getWaitP50Micros() {
+        return waitP50Micros;
+    }
+
+    public long getWaitP99Micros() {
+        return waitP99Micros;
+    }
+
+    public long getWaitMaxMicros() {
+        return waitMaxMicros;
+    }
+
+    /**
+     * @return 99th percentile of the time a connection was held before it was returned to the pool
+     */
+    public long getUsageP99Micros() {
+        return usageP99Micros;
+    }
+
+    public String toString() {
+        return "pool(active: " + active + ", idle: " + idle + ", total: " + total + ", waiting: " + waiting
+                + ", acquisitions: " + acquisitions + ", timeouts: " + timeouts
+                + ", wait p50: " + waitP50Micros + "us, p99: " + waitP99Micros + "us, max: " + waitMaxMicros
+                + "us, usage p99: " + usageP99Micros + "us)";
+    }
+}
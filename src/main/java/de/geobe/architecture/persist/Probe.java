@@ -0,0 +1,116 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.util.Map;
+
+/**
+ * Measures a single call of a dao operation. Probes are only created when metrics or the
+ * query profiler are enabled, otherwise the shared NONE probe does nothing.
+ *
+ * @author georg beier
+ */
+class Probe {
+
+    static final Probe NONE = new Probe(null, null);
+
+    private final PersistenceMetrics.OperationMetrics metrics;
+    private final QueryProfiler.Capture capture;
+    private final long started;
+    private long rows;
+    private long stale;
+    private boolean failed;
+
+    Probe(PersistenceMetrics.OperationMetrics metrics, QueryProfiler.Capture capture) {
+        this.metrics = metrics;
+        this.capture = capture;
+        this.started = metrics == null && capture == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * describe the query of the call for the query profiler
+     *
+     * @param hql        HQL query or statement
+     * @param parameters actual parameters with parameter name as key
+     */
+    void query(String hql, Map<String, ?> parameters) {
+        if (capture != null) {
+            capture.query(hql, parameters);
+        }
+    }
+
+    /**
+     * count objects returned or written
+     *
+     * @param count number of objects
+     */
+    void rows(long count) {
+        if (metrics != null || capture != null) {
+            rows += count;
+        }
+    }
+
+    /**
+     * count objects found "stale"
+     *
+     * @param count number of objects
+     */
+    void stale(long count) {
+        if (metrics != null) {
+            stale += count;
+        }
+    }
+
+    /**
+     * mark the call as failed by an exception
+     */
+    void failed() {
+        if (metrics != null || capture != null) {
+            failed = true;
+        }
+    }
+
+    /**
+     * record the call
+     */
+    void end() {
+        if (metrics == null && capture == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - started;
+        try {
+            if (metrics != null) {
+                metrics.record(elapsed, rows, stale, failed);
+            }
+        } finally {
+            // the capture must always leave the profiler's stack of the thread
+            if (capture != null) {
+                capture.end(elapsed, rows, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Figures of all SQL statements with the same normalized SQL at the time the snapshot was taken.
+ * Durations are given in microseconds.
+ *
+ * @author georg beier
+ * @see QueryProfiler#getReport()
+ */
+public class QueryProfile {
+
+    private final String sql;
+    private final List<String> callers;
+    private final List<String> parameters;
+    private final long executions;
+    private final long executionMicros;
+    private final long maxExecutionMicros;
+    private final long operations;
+    private final long fetchMicros;
+    private final long rows;
+
+    QueryProfile(String sql, List<String> callers, List<String> parameters, long executions,
+                 long executionNanos, long maxExecutionNanos, long operations, long fetchNanos, long rows) {
+        this.sql = sql;
+        this.callers = Collections.unmodifiableList(callers);
+        this.parameters = Collections.unmodifiableList(parameters);
+        this.executions = executions;
+        this.executionMicros = executionNanos / 1000;
+        this.maxExecutionMicros = maxExecutionNanos / 1000;
+        this.operations = operations;
+        this.fetchMicros = fetchNanos / 1000;
+        this.rows = rows;
+    }
+
+    /**
+     * @return SQL with placeholders for literals and IN lists
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return dao operations that executed the statement, e.g. "Person.find"
+     */
+    public List<String> getCallers() {
+        return callers;
+    }
+
+    /**
+     * @return distinct shapes of the HQL parameters, i.e. their types and collection sizes
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return number of JDBC executions
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * @return time spent in JDBC executions
+     */
+    public long getExecutionMicros() {
+        return executionMicros;
+    }
+
+    public long getMeanExecutionMicros() {
+        return executions == 0 ? 0 : executionMicros / executions;
+    }
+
+    public long getMaxExecutionMicros() {
+        return maxExecutionMicros;
+    }
+
+    /**
+     * @return number of dao operations that started with this statement
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return time of those dao operations not spent executing statements, i.e. reading rows and building objects
+     */
+    public long getFetchMicros() {
+        return fetchMicros;
+    }
+
+    /**
+     * @return number of objects returned or written by those dao operations
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return execution and fetch time together
+     */
+    public long getTotalMicros() {
+        return executionMicros + fetchMicros;
+    }
+
+    public String toString() {
+        return "(" + sql + ", callers: " + callers + ", executions: " + executions + ", execute: "
+                + executionMicros + "us, max: " + maxExecutionMicros + "us, fetch: " + fetchMicros
+                + "us, rows: " + rows + (parameters.isEmpty() ? "" : ", parameters: " + parameters) + ")";
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.SessionEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.lang.reflect.Array;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Opt-in statement profiler of a database. It is installed as the statement inspector of the
+ * session factory and sees all SQL hibernate generates. While enabled, every session opened by
+ * {@link DbHibernate} also reports the time spent executing the statements on the JDBC driver. Statements are attributed to the dao operation running in the same thread.
+ * <ul>
+ * <li>dao operations slower than the slow threshold are logged with their HQL, the shapes of the
+ * bound parameters (types and collection sizes, never values) and the generated SQL</li>
+ * <li>statements are grouped by normalized SQL, i.e. with literals and IN lists replaced by
+ * placeholders. The most expensive shapes are available as a report at any time.</li>
+ * </ul>
+ * Execution time is measured around the JDBC execute calls. Fetch time is the remaining time of a dao
+ * operation, i.e. reading rows and building objects, and is attributed together with the row count to
+ * the first statement of the operation. Only sessions opened after enabling are profiled.
+ * Hibernate does not pass the SQL of stateless sessions to the statement inspector, so their
+ * statements are grouped by the HQL of the dao operation.
+ *
+ * @author georg beier
+ */
+public class QueryProfiler {
+
+    /**
+     * dao operations taking at least this long are logged by default
+     */
+    public static final Duration DEFAULT_SLOW_THRESHOLD = Duration.ofMillis(200);
+    /**
+     * default number of statement shapes in the report
+     */
+    public static final int DEFAULT_TOP_SIZE = 20;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String UNATTRIBUTED = "(session)";
+    private static final int MAX_CALLERS = 8;
+    private static final int MAX_LOGGED_STATEMENTS = 5;
+
+    private final ThreadLocal<Capture> current = new ThreadLocal<>();
+    private final ThreadLocal<String> statement = new ThreadLocal<>();
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final LongAdder slowOperations = new LongAdder();
+    private volatile boolean enabled = false;
+    private volatile long slowThreshold = DEFAULT_SLOW_THRESHOLD.toNanos();
+    private volatile int topSize = DEFAULT_TOP_SIZE;
+    private volatile StatementInspector delegate;
+    private final StatementInspector inspector = sql -> {
+        StatementInspector next = delegate;
+        String inspected = next == null ? sql : next.inspect(sql);
+        if (enabled) {
+            statement.set(inspected == null ? sql : inspected);
+        }
+        return inspected;
+    };
+
+    QueryProfiler() {
+    }
+
+    /**
+     * @return true if sessions opened now are profiled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * switch profiling on or off. Sessions that are already open keep their setting.
+     *
+     * @param enabled true to profile sessions opened from now on
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return minimal duration of dao operations that are logged
+     */
+    public Duration getSlowThreshold() {
+        return Duration.ofNanos(slowThreshold);
+    }
+
+    /**
+     * set the minimal duration of dao operations that are logged as slow
+     *
+     * @param threshold a positive duration
+     */
+    public void setSlowThreshold(Duration threshold) {
+        if (threshold.isNegative() || threshold.isZero()) {
+            throw new IllegalArgumentException("slow threshold must be positive: " + threshold);
+        }
+        slowThreshold = threshold.toNanos();
+    }
+
+    /**
+     * @return number of statement shapes in the report
+     */
+    public int getTopSize() {
+        return topSize;
+    }
+
+    /**
+     * set the number of statement shapes in the report. Ten times as many shapes are kept in memory,
+     * the cheapest ones are dropped when this limit is exceeded.
+     *
+     * @param topSize a positive number
+     */
+    public void setTopSize(int topSize) {
+        if (topSize < 1) {
+            throw new IllegalArgumentException("topSize must be positive: " + topSize);
+        }
+        this.topSize = topSize;
+    }
+
+    /**
+     * @return number of dao operations logged as slow
+     */
+    public long getSlowOperations() {
+        return slowOperations.sum();
+    }
+
+    /**
+     * get the most expensive statement shapes since enabling or the last reset
+     *
+     * @return at most topSize shapes ordered by total execution and fetch time, most expensive first
+     */
+    public List<QueryProfile> getReport() {
+        return shapes.values().stream()
+                .map(Shape::snapshot)
+                .sorted(Comparator.comparingLong(QueryProfile::getTotalMicros).reversed())
+                .limit(topSize)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * forget all statement shapes and the count of slow operations
+     */
+    public void reset() {
+        shapes.clear();
+        slowOperations.reset();
+    }
+
+    /**
+     * normalize a SQL statement, so that statements differing only in literal values or
+     * the length of IN lists have the same shape
+     *
+     * @param sql a SQL statement
+     * @return the statement with placeholders for literals and IN lists
+     */
+    static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = IN_LIST.matcher(normalized).replaceAll(Matcher.quoteReplacement("in (?...)"));
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    /**
+     * describe parameters by their types and the sizes of collections and arrays
+     *
+     * @param parameters actual parameters with parameter name as key
+     * @return a description of the parameters without their values
+     */
+    static String shapeOf(Map<String, ?> parameters) {
+        Map<String, String> shape = new TreeMap<>();
+        parameters.forEach((name, value) -> {
+            String type;
+            if (value == null) {
+                type = "null";
+            } else if (value instanceof Collection) {
+                type = value.getClass().getSimpleName() + "[" + ((Collection<?>) value).size() + "]";
+            } else if (value.getClass().isArray()) {
+                type = value.getClass().getComponentType().getSimpleName() + "[" + Array.getLength(value) + "]";
+            } else {
+                type = value.getClass().getSimpleName();
+            }
+            shape.put(name, type);
+        });
+        return shape.toString();
+    }
+
+    /**
+     * start profiling a dao operation in the calling thread
+     *
+     * @param type      persistent class of the dao
+     * @param operation name of the dao method
+     * @return the capture that must be ended by the same thread
+     */
+    Capture begin(Class<?> type, String operation) {
+        Capture capture = new Capture(type.getSimpleName() + "." + operation, current.get());
+        current.set(capture);
+        return capture;
+    }
+
+    /**
+     * @return statement inspector to be installed in the session factory
+     */
+    StatementInspector inspector() {
+        return inspector;
+    }
+
+    /**
+     * pass all statements on to an inspector configured by the application
+     *
+     * @param configured statement inspector configured for the session factory
+     */
+    void delegateTo(StatementInspector configured) {
+        delegate = configured;
+    }
+
+    /**
+     * create a listener for a new session that measures statement executions
+     *
+     * @param stateless true for a stateless session, whose SQL is not inspected
+     * @return a listener to be added to the session
+     */
+    SessionEventListener sessionOpened(boolean stateless) {
+        return new ExecutionTimer(stateless);
+    }
+
+    /**
+     * account one statement execution
+     */
+    private void executed(String sql, long nanos) {
+        Capture capture = current.get();
+        if (sql == null) {
+            if (capture == null || capture.hql == null) {
+                return;
+            }
+            sql = "hql: " + capture.hql;
+        }
+        String normalized = normalize(sql);
+        shape(normalized).executed(nanos, capture == null ? UNATTRIBUTED : capture.caller);
+        if (capture != null) {
+            capture.executed(sql, normalized, nanos);
+        }
+    }
+
+    /**
+     * get the statistics of a statement shape, dropping the cheapest ones if too many are kept
+     */
+    private Shape shape(String normalized) {
+        Shape shape = shapes.get(normalized);
+        if (shape == null) {
+            int limit = topSize * 10;
+            if (shapes.size() >= limit) {
+                synchronized (shapes) {
+                    if (shapes.size() >= limit) {
+                        shapes.values().stream()
+                                .sorted(Comparator.comparingLong(Shape::totalNanos))
+                                .limit(shapes.size() - limit / 2)
+                                .collect(Collectors.toList())
+                                .forEach(cheap -> shapes.remove(cheap.sql, cheap));
+                    }
+                }
+            }
+            shape = shapes.computeIfAbsent(normalized, Shape::new);
+        }
+        return shape;
+    }
+
+    /**
+     * All statements and timings of one dao operation. Captures of nested operations are kept
+     * as a stack per thread, statements belong to the innermost operation.
+     */
+    class Capture {
+        private final String caller;
+        private final Capture parent;
+        private final Set<String> statements = new LinkedHashSet<>();
+        private String firstShape;
+        private String hql;
+        private String parameters;
+        private int executions;
+        private long executionNanos;
+        private boolean ended;
+
+        private Capture(String caller, Capture parent) {
+            this.caller = caller;
+            this.parent = parent;
+        }
+
+        /**
+         * remember the HQL and the parameter shapes of the operation
+         *
+         * @param hql        HQL query or statement
+         * @param parameters actual parameters with parameter name as key
+         */
+        void query(String hql, Map<String, ?> parameters) {
+            this.hql = hql;
+            this.parameters = parameters.isEmpty() ? null : shapeOf(parameters);
+        }
+
+        private void executed(String sql, String normalized, long nanos) {
+            if (firstShape == null) {
+                firstShape = normalized;
+            }
+            if (statements.size() < MAX_LOGGED_STATEMENTS) {
+                statements.add(sql);
+            }
+            executions++;
+            executionNanos += nanos;
+        }
+
+        /**
+         * finish the operation without accounting it and remove it from the stack of the thread
+         */
+        void abandon() {
+            ended = true;
+            if (current.get() == this) {
+                Capture active = parent;
+                while (active != null && active.ended) {
+                    active = active.parent;
+                }
+                if (active == null) {
+                    current.remove();
+                } else {
+                    current.set(active);
+                }
+            }
+        }
+
+        /**
+         * finish the operation, account its fetch time and log it if it was slow
+         *
+         * @param nanos  duration of the whole operation
+         * @param rows   number of objects returned or written
+         * @param failed true if the operation threw an exception
+         */
+        void end(long nanos, long rows, boolean failed) {
+            abandon();
+            long fetchNanos = Math.max(0, nanos - executionNanos);
+            if (firstShape != null) {
+                shape(firstShape).completed(fetchNanos, rows, parameters);
+            }
+            if (nanos >= slowThreshold) {
+                slowOperations.increment();
+                // logger is looked up only here, so the profiler does not initialize logging
+                Logger logger = LogManager.getLogger(QueryProfiler.class);
+                logger.warn("slow {}{}: {} ms (execute {} ms in {} statements, fetch {} ms), {} rows, hql: {}, "
+                                + "parameters: {}, sql: {}", caller, failed ? " (failed)" : "",
+                        nanos / 1_000_000, executionNanos / 1_000_000, executions, fetchNanos / 1_000_000, rows,
+                        hql, parameters, statements);
+            }
+        }
+    }
+
+    /**
+     * Measures statement executions of one session. The statement executed is the last one
+     * the inspector saw in the same thread. A session is used by one thread at a time,
+     * so no synchronization is needed.
+     */
+    @SuppressWarnings("serial")
+    private class ExecutionTimer extends BaseSessionEventListener {
+        private final boolean stateless;
+        private long started;
+
+        private ExecutionTimer(boolean stateless) {
+            this.stateless = stateless;
+        }
+
+        private String statement() {
+            return stateless ? null : statement.get();
+        }
+
+        @Override
+        public void jdbcExecuteStatementStart() {
+            started = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteStatementEnd() {
+            executed(statement(), System.nanoTime() - started);
+        }
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            started = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteBatchEnd() {
+            executed(statement(), System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * statistics of all statements with the same normalized SQL
+     */
+    private static class Shape {
+        private final String sql;
+        private final Set<String> callers = new LinkedHashSet<>();
+        private final Set<String> parameters = new LinkedHashSet<>();
+        private long executions;
+        private long executionNanos;
+        private long maxExecutionNanos;
+        private long operations;
+        private long fetchNanos;
+        private long rows;
+
+        private Shape(String sql) {
+            this.sql = sql;
+        }
+
+        synchronized void executed(long nanos, String caller) {
+            executions++;
+            executionNanos += nanos;
+            maxExecutionNanos = Math.max(maxExecutionNanos, nanos);
+            if (callers.size() < MAX_CALLERS) {
+                callers.add(caller);
+            }
+        }
+
+        synchronized void completed(long fetch, long rowCount, String parameterShape) {
+            operations++;
+            fetchNanos += fetch;
+            rows += rowCount;
+            if (parameterShape != null && parameters.size() < MAX_CALLERS) {
+                parameters.add(parameterShape);
+            }
+        }
+
+        synchronized long totalNanos() {
+            return executionNanos + fetchNanos;
+        }
+
+        synchronized QueryProfile snapshot() {
+            return new QueryProfile(sql, new ArrayList<>(callers), new ArrayList<>(parameters), executions,
+                    executionNanos, maxExecutionNanos, operations, fetchNanos, rows);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and after which delays {@link DbHibernate#inTransaction(java.util.function.Supplier, RetryPolicy)}
+ * repeats a unit of work after a version conflict. Delays grow exponentially from initialBackoff up to
+ * maxBackoff. The actual delay is a random value between zero and this limit (full jitter), so threads
+ * that collided don't collide again at the same time.
+ *
+ * @author georg beier
+ */
+public class RetryPolicy {
+
+    /**
+     * up to 5 attempts with delays starting at 10 ms, limited to 1 s
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, Duration.ofMillis(10), Duration.ofSeconds(1));
+
+    /**
+     * run unit of work only once
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    /**
+     * @param maxAttempts    maximum number of attempts including the first one
+     * @param initialBackoff limit of the delay before the first retry
+     * @param maxBackoff     upper limit of all delays
+     */
+    public RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("at least one attempt needed");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * compute a random delay before the next attempt
+     *
+     * @param attempt number of the failed attempt, starting at 1
+     * @return delay in nanoseconds
+     */
+    long backoffNanos(int attempt) {
+        long limit = initialBackoffNanos << Math.min(attempt - 1, 30);
+        if (limit < 0 || limit > maxBackoffNanos) {
+            limit = maxBackoffNanos;
+        }
+        return limit <= 0 ? 0 : ThreadLocalRandom.current().nextLong(limit + 1);
+    }
+
+    public String toString() {
+        return "(maxAttempts: " + maxAttempts + ", initialBackoff: " + initialBackoffNanos / 1000
+                + "us, maxBackoff: " + maxBackoffNanos / 1000 + "us)";
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.List;
+
+/**
+ * Maps the rows of a projection query to objects of a result class, e.g. a record or any
+ * other class with a public constructor that takes the selected columns in query order.
+ * The constructor is chosen once from the types of the selected columns, not from the values of
+ * some row, and resolved as a MethodHandle. Mappers are kept by {@link DbHibernate} and shared by
+ * all daos of a database.
+ *
+ * @param <R> type of result objects
+ * @author georg beier
+ */
+class RowMapper<R> {
+
+    private static final MethodType constructorType = MethodType.methodType(Object.class, Object[].class);
+
+    private final Class<R> resultType;
+    private final MethodHandle constructor;
+    private final boolean[] primitive;
+
+    /**
+     * choose how rows with the given column types are mapped to resultType
+     *
+     * @param resultType  class of result objects
+     * @param columnTypes java types of the selected columns in query order
+     * @throws IllegalArgumentException if resultType has no public constructor for these columns
+     */
+    RowMapper(Class<R> resultType, List<Class<?>> columnTypes) {
+        this.resultType = resultType;
+        if (columnTypes.size() == 1 && wrap(resultType).isAssignableFrom(wrap(columnTypes.get(0)))) {
+            // a single column that already is of the result type is returned unchanged
+            constructor = null;
+            primitive = new boolean[1];
+        } else {
+            Constructor<?> best = findConstructor(columnTypes);
+            Class<?>[] parameterTypes = best.getParameterTypes();
+            primitive = new boolean[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                primitive[i] = parameterTypes[i].isPrimitive();
+            }
+            try {
+                constructor = MethodHandles.publicLookup().unreflectConstructor(best)
+                        .asSpreader(Object[].class, parameterTypes.length)
+                        .asType(constructorType);
+            } catch (IllegalAccessException e) {
+                // should be impossible for public constructors of public classes
+                throw new IllegalArgumentException(resultType.getName() + " is not accessible", e);
+            }
+        }
+    }
+
+    /**
+     * create a result object from one row
+     *
+     * @param row a single value or an Object[] with all columns of the row
+     * @return a new result object
+     * @throws IllegalArgumentException if a column is null, but the constructor takes a primitive
+     */
+    R map(Object row) {
+        Object[] columns = row instanceof Object[] ? (Object[]) row : new Object[]{row};
+        if (constructor == null) {
+            return resultType.cast(columns[0]);
+        }
+        for (int i = 0; i < primitive.length; i++) {
+            if (primitive[i] && columns[i] == null) {
+                throw new IllegalArgumentException("column " + i + " is null, but the constructor of "
+                        + resultType.getName() + " takes a primitive");
+            }
+        }
+        try {
+            return resultType.cast((Object) constructor.invokeExact(columns));
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new IllegalStateException("cannot create " + resultType.getName(), t);
+        }
+    }
+
+    /**
+     * find the public constructor that fits the column types best. Parameters of exactly the column
+     * type are preferred over supertypes and wrapper types over primitives, which cannot take null.
+     *
+     * @param columnTypes java types of the selected columns
+     * @return the best matching constructor
+     */
+    private Constructor<?> findConstructor(List<Class<?>> columnTypes) {
+        Constructor<?> best = null;
+        int bestScore = -1;
+        for (Constructor<?> constructor : resultType.getConstructors()) {
+            int score = score(constructor.getParameterTypes(), columnTypes);
+            if (score > bestScore) {
+                best = constructor;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            throw new IllegalArgumentException(resultType.getName()
+                    + " has no public constructor for columns " + columnTypes);
+        }
+        return best;
+    }
+
+    /**
+     * @return how well parameters fit the column types, -1 if they don't fit at all
+     */
+    private static int score(Class<?>[] parameterTypes, List<Class<?>> columnTypes) {
+        if (parameterTypes.length != columnTypes.size()) {
+            return -1;
+        }
+        int score = 0;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameter = parameterTypes[i];
+            Class<?> column = wrap(columnTypes.get(i));
+            if (!wrap(parameter).isAssignableFrom(column)) {
+                return -1;
+            }
+            if (parameter == column) {
+                score += 2;
+            } else if (!parameter.isPrimitive()) {
+                score += 1;
+            }
+        }
+        return score;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+}
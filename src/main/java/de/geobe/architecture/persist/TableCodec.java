@@ -0,0 +1,712 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Encodes and decodes the basic attributes of a persistent class as CSV or binary rows for
+ * {@link DaoHibernate#exportTo} and {@link DaoHibernate#importFrom}. The id comes first, followed by
+ * all insertable attributes of basic types. Associations, collections and embedded attributes are
+ * not exported. Imported objects are new objects, so ids and versions of the file are not used.
+ *
+ * @author georg beier
+ */
+class TableCodec {
+
+    private static final int MAGIC = 0x45484231; // "EHB1"
+    private static final byte ROW = 1;
+    private static final byte NO_MORE_ROWS = 0;
+
+    private final EntityPersister persister;
+    private final List<String> names = new ArrayList<>();
+    private final List<ColumnType> types = new ArrayList<>();
+    private final List<Class<?>> javaTypes = new ArrayList<>();
+    /**
+     * property index of every column for import, -1 for id and version
+     */
+    private final List<Integer> properties = new ArrayList<>();
+
+    TableCodec(EntityPersister persister) {
+        this.persister = persister;
+        String idName = persister.getIdentifierPropertyName();
+        Type idType = persister.getIdentifierType();
+        if (idName != null && !idType.isComponentType()) {
+            addColumn(idName, idType, -1);
+        }
+        String[] propertyNames = persister.getPropertyNames();
+        Type[] propertyTypes = persister.getPropertyTypes();
+        boolean[] insertable = persister.getPropertyInsertability();
+        for (int i = 0; i < propertyNames.length; i++) {
+            Type type = propertyTypes[i];
+            if (!insertable[i] || type.isAssociationType() || type.isCollectionType() || type.isComponentType()) {
+                continue;
+            }
+            boolean version = persister.isVersioned() && i == persister.getVersionProperty();
+            addColumn(propertyNames[i], type, version ? -1 : i);
+        }
+    }
+
+    private void addColumn(String name, Type type, int property) {
+        Class<?> javaType = type.getReturnedClass();
+        ColumnType columnType = ColumnType.of(javaType);
+        if (columnType == null) {
+            throw new IllegalStateException("attribute " + persister.getEntityName() + "." + name + " of type "
+                    + javaType.getName() + " cannot be exported");
+        }
+        names.add(name);
+        types.add(columnType);
+        javaTypes.add(javaType);
+        properties.add(property);
+    }
+
+    /**
+     * @return names of all exported attributes, to be selected in this order
+     */
+    String[] getAttributes() {
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * encode rows that hold the values of {@link #getAttributes()}
+     *
+     * @param rows   all rows to be encoded
+     * @param format file format
+     * @param out    stream receiving the encoded rows
+     * @return number of rows
+     */
+    long encode(Iterator<Object[]> rows, ExportFormat format, OutputStream out) throws IOException {
+        long count = 0;
+        if (format == ExportFormat.CSV) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                    ChannelPipeline.BUFFER_SIZE);
+            writeCsvRecord(writer, names.toArray());
+            Object[] fields = new Object[names.size()];
+            while (rows.hasNext()) {
+                Object[] row = rows.next();
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = row[i] == null ? null : types.get(i).toText(row[i]);
+                }
+                writeCsvRecord(writer, fields);
+                count++;
+            }
+            writer.flush();
+        } else {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(names.size());
+            for (String name : names) {
+                data.writeUTF(name);
+            }
+            while (rows.hasNext()) {
+                Object[] row = rows.next();
+                data.writeByte(ROW);
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] == null) {
+                        data.writeBoolean(false);
+                    } else {
+                        data.writeBoolean(true);
+                        types.get(i).write(data, row[i]);
+                    }
+                }
+                count++;
+            }
+            data.writeByte(NO_MORE_ROWS);
+            data.flush();
+        }
+        return count;
+    }
+
+    /**
+     * decode rows and create new persistent objects from them
+     *
+     * @param in     stream of encoded rows
+     * @param format file format
+     * @param sink   receives the new objects
+     */
+    void decode(InputStream in, ExportFormat format, Consumer<Object> sink) throws IOException {
+        if (format == ExportFormat.CSV) {
+            Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),
+                    ChannelPipeline.BUFFER_SIZE);
+            List<String> fields = new ArrayList<>();
+            if (!readCsvRecord(reader, fields)) {
+                return;
+            }
+            int[] columns = columnsOf(fields);
+            while (readCsvRecord(reader, fields)) {
+                if (fields.size() != columns.length) {
+                    throw new IllegalArgumentException("expected " + columns.length + " fields, found "
+                            + fields.size() + ": " + fields);
+                }
+                Object object = persister.instantiate(null, null);
+                for (int i = 0; i < columns.length; i++) {
+                    int column = columns[i];
+                    String field = fields.get(i);
+                    if (properties.get(column) >= 0 && field != null) {
+                        persister.setPropertyValue(object, properties.get(column),
+                                types.get(column).fromText(field, javaTypes.get(column)));
+                    }
+                }
+                sink.accept(object);
+            }
+        } else {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC) {
+                throw new IllegalArgumentException("not a binary export file");
+            }
+            List<String> header = new ArrayList<>();
+            for (int i = data.readInt(); i > 0; i--) {
+                header.add(data.readUTF());
+            }
+            int[] columns = columnsOf(header);
+            while (data.readByte() == ROW) {
+                Object object = persister.instantiate(null, null);
+                for (int column : columns) {
+                    if (data.readBoolean()) {
+                        Object value = types.get(column).read(data, javaTypes.get(column));
+                        if (properties.get(column) >= 0) {
+                            persister.setPropertyValue(object, properties.get(column), value);
+                        }
+                    }
+                }
+                sink.accept(object);
+            }
+        }
+    }
+
+    /**
+     * map the attribute names of a file header to columns of this codec
+     */
+    private int[] columnsOf(List<String> header) {
+        int[] columns = new int[header.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = names.indexOf(header.get(i));
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("unknown attribute " + header.get(i) + " of "
+                        + persister.getEntityName());
+            }
+        }
+        return columns;
+    }
+
+    private static void writeCsvRecord(Writer writer, Object[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String field = (String) fields[i];
+            if (field == null) {
+                continue;
+            }
+            if (field.isEmpty() || needsQuotes(field)) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * read one record, quoted fields may contain line breaks
+     *
+     * @param reader a reader positioned at the start of a record
+     * @param fields filled with the fields of the record, null for empty unquoted fields
+     * @return false at end of input
+     */
+    private static boolean readCsvRecord(Reader reader, List<String> fields) throws IOException {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        int c = reader.read();
+        if (c < 0) {
+            return false;
+        }
+        while (true) {
+            if (inQuotes) {
+                if (c < 0) {
+                    throw new IllegalArgumentException("unterminated quoted field: " + field);
+                } else if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',' || c == '\n' || c < 0) {
+                fields.add(quoted || field.length() > 0 ? field.toString() : null);
+                if (c != ',') {
+                    return true;
+                }
+                field.setLength(0);
+                quoted = false;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    /**
+     * supported attribute types with their text and binary representation
+     */
+    private enum ColumnType {
+        STRING(String.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return text;
+            }
+        },
+        CHARACTER(Character.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeChar((Character) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readChar();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                if (text.length() != 1) {
+                    throw new IllegalArgumentException("not a single character: \"" + text + "\"");
+                }
+                return text.charAt(0);
+            }
+        },
+        BOOLEAN(Boolean.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeBoolean((Boolean) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readBoolean();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Boolean.parseBoolean(text);
+            }
+        },
+        BYTE(Byte.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeByte((Byte) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readByte();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Byte.parseByte(text);
+            }
+        },
+        SHORT(Short.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeShort((Short) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readShort();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Short.parseShort(text);
+            }
+        },
+        INTEGER(Integer.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeInt((Integer) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readInt();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Integer.parseInt(text);
+            }
+        },
+        LONG(Long.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeLong((Long) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readLong();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Long.parseLong(text);
+            }
+        },
+        FLOAT(Float.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeFloat((Float) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readFloat();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Float.parseFloat(text);
+            }
+        },
+        DOUBLE(Double.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeDouble((Double) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return in.readDouble();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Double.parseDouble(text);
+            }
+        },
+        BIG_DECIMAL(BigDecimal.class) {
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return new BigDecimal(text);
+            }
+        },
+        BIG_INTEGER(BigInteger.class) {
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return new BigInteger(text);
+            }
+        },
+        LOCAL_DATE(LocalDate.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeLong(((LocalDate) value).toEpochDay());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return LocalDate.ofEpochDay(in.readLong());
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return LocalDate.parse(text);
+            }
+        },
+        LOCAL_TIME(LocalTime.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeLong(((LocalTime) value).toNanoOfDay());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return LocalTime.ofNanoOfDay(in.readLong());
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return LocalTime.parse(text);
+            }
+        },
+        LOCAL_DATE_TIME(LocalDateTime.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                LocalDateTime dateTime = (LocalDateTime) value;
+                out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(dateTime.getNano());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return LocalDateTime.parse(text);
+            }
+        },
+        INSTANT(Instant.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                writeInstant(out, (Instant) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return readInstant(in);
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Instant.parse(text);
+            }
+        },
+        TIMESTAMP(java.sql.Timestamp.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                writeInstant(out, ((java.sql.Timestamp) value).toInstant());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return java.sql.Timestamp.from(readInstant(in));
+            }
+
+            @Override
+            String toText(Object value) {
+                return ((java.sql.Timestamp) value).toInstant().toString();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return java.sql.Timestamp.from(Instant.parse(text));
+            }
+        },
+        SQL_DATE(java.sql.Date.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeLong(((java.sql.Date) value).toLocalDate().toEpochDay());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return java.sql.Date.valueOf(LocalDate.ofEpochDay(in.readLong()));
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return java.sql.Date.valueOf(text);
+            }
+        },
+        SQL_TIME(java.sql.Time.class) {
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return java.sql.Time.valueOf(text);
+            }
+        },
+        DATE(Date.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeLong(((Date) value).getTime());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return new Date(in.readLong());
+            }
+
+            @Override
+            String toText(Object value) {
+                return Instant.ofEpochMilli(((Date) value).getTime()).toString();
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Date.from(Instant.parse(text));
+            }
+        },
+        UUID(java.util.UUID.class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                out.writeLong(((java.util.UUID) value).getMostSignificantBits());
+                out.writeLong(((java.util.UUID) value).getLeastSignificantBits());
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return new java.util.UUID(in.readLong(), in.readLong());
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return java.util.UUID.fromString(text);
+            }
+        },
+        ENUM(Enum.class) {
+            @Override
+            String toText(Object value) {
+                return ((Enum<?>) value).name();
+            }
+
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Object fromText(String text, Class<?> javaType) {
+                return Enum.valueOf((Class<? extends Enum>) javaType, text);
+            }
+        },
+        BYTES(byte[].class) {
+            @Override
+            void write(DataOutput out, Object value) throws IOException {
+                writeBytes(out, (byte[]) value);
+            }
+
+            @Override
+            Object read(DataInput in, Class<?> javaType) throws IOException {
+                return readBytes(in);
+            }
+
+            @Override
+            String toText(Object value) {
+                return Base64.getEncoder().encodeToString((byte[]) value);
+            }
+
+            @Override
+            Object fromText(String text, Class<?> javaType) {
+                return Base64.getDecoder().decode(text);
+            }
+        };
+
+        private final Class<?> javaType;
+
+        ColumnType(Class<?> javaType) {
+            this.javaType = javaType;
+        }
+
+        /**
+         * find the column type for an attribute type
+         *
+         * @return the column type or null if the type is not supported
+         */
+        static ColumnType of(Class<?> attributeType) {
+            for (ColumnType type : values()) {
+                if (type.javaType.equals(attributeType)) {
+                    return type;
+                }
+            }
+            return Enum.class.isAssignableFrom(attributeType) ? ENUM : null;
+        }
+
+        /**
+         * write a not null value, by default as its text
+         */
+        void write(DataOutput out, Object value) throws IOException {
+            writeBytes(out, toText(value).getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * read a not null value, by default from its text
+         */
+        Object read(DataInput in, Class<?> javaType) throws IOException {
+            return fromText(new String(readBytes(in), StandardCharsets.UTF_8), javaType);
+        }
+
+        String toText(Object value) {
+            return value.toString();
+        }
+
+        abstract Object fromText(String text, Class<?> javaType);
+
+        private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInput in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private static void writeInstant(DataOutput out, Instant instant) throws IOException {
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+
+        private static Instant readInstant(DataInput in) throws IOException {
+            return Instant.ofEpochSecond(in.readLong(), in.readInt());
+        }
+    }
+}
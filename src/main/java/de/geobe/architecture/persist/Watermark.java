@@ -0,0 +1,116 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+package de.geobe.architecture.persist;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Position in the change feed of a persistent class, see {@link DaoHibernate#changesSince(Watermark, int)}.
+ * Changes are ordered by a change attribute, e.g. a timestamp version or a last modified date, and by id
+ * for objects with the same value. A watermark is immutable and serializable, so it can be stored to
+ * resume after a restart.
+ *
+ * @author georg beier
+ */
+public final class Watermark implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String attribute;
+    private final Serializable value;
+    private final Serializable id;
+
+    /**
+     * @param attribute name of the change attribute
+     * @param value     value of the change attribute of the last seen object, null for the start
+     * @param id        id of the last seen object, null if all objects with value were seen
+     */
+    Watermark(String attribute, Serializable value, Serializable id) {
+        this.attribute = Objects.requireNonNull(attribute, "attribute");
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * start of the change feed, all objects are changes
+     *
+     * @param attribute name of the change attribute
+     * @return a watermark before all objects
+     */
+    public static Watermark start(String attribute) {
+        return new Watermark(attribute, null, null);
+    }
+
+    /**
+     * position after all objects with a change attribute up to value, e.g. the time of the last full copy
+     *
+     * @param attribute name of the change attribute
+     * @param value     last value of the change attribute that is not a change
+     * @return a watermark after all objects changed up to value
+     */
+    public static Watermark after(String attribute, Serializable value) {
+        return new Watermark(attribute, Objects.requireNonNull(value, "value"), null);
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * @return value of the change attribute of the last seen object, null at the start of the feed
+     */
+    public Serializable getValue() {
+        return value;
+    }
+
+    /**
+     * @return id of the last seen object, null if all objects up to value were seen
+     */
+    public Serializable getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Watermark)) {
+            return false;
+        }
+        Watermark watermark = (Watermark) other;
+        return attribute.equals(watermark.attribute) && Objects.equals(value, watermark.value)
+                && Objects.equals(id, watermark.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(attribute, value, id);
+    }
+
+    public String toString() {
+        return "Watermark(" + attribute + ": " + value + ", id: " + id + ")";
+    }
+}
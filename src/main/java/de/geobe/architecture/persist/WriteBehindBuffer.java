@@ -0,0 +1,332 @@
+/*
+ *  The MIT License (MIT)
+ *
+ *                            Copyright (c) 2021. Georg Beier
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ *
+ *
+ */
+
+
+package de.geobe.architecture.persist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.persistence.PersistenceUnitUtil;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Write behind buffer for objects of PersistType, e.g. for high volume event ingestion.
+ * {@link #save(Object)} only puts an object into the buffer. A background thread writes buffered
+ * objects in batches of batchSize, using {@link DaoHibernate#saveAll(Iterable, int, int)}, every batch
+ * in its own transaction. Buffered objects are written when a full batch is available or at the
+ * latest after maxDelay. If an object with the same id is saved again before it was written, only
+ * the last one is written.<br>
+ * The buffer holds at most capacity objects, save blocks if it is full. Remaining objects are written,
+ * when the buffer or its database is closed. Stale objects and failed batches are reported to handlers,
+ * because the caller of save is not around any more.
+ *
+ * @param <PersistType> a persisted type that is handled by this buffer
+ * @author georg beier
+ */
+public class WriteBehindBuffer<PersistType> implements AutoCloseable {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final Logger logger = LogManager.getLogger(WriteBehindBuffer.class);
+
+    private final DbHibernate dbHibernate;
+    private final DaoHibernate<PersistType> dao;
+    private final int batchSize;
+    private final int capacity;
+    private final PersistenceUnitUtil util;
+    private final ScheduledExecutorService flusher;
+    private final Runnable closeHook = this::close;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private Map<Object, PersistType> pending = new LinkedHashMap<>();
+    private volatile boolean closed = false;
+
+    private volatile Consumer<? super PersistType> staleHandler;
+    private volatile BiConsumer<List<PersistType>, RuntimeException> failureHandler;
+
+    /**
+     * create a write behind buffer and start its background thread
+     *
+     * @param persistType The class of the PersistType
+     * @param dbac        The Hibernate database access object
+     * @param batchSize   number of objects written in one transaction with JDBC batching
+     * @param maxDelay    maximum time an object waits in the buffer
+     * @param capacity    maximum number of objects in the buffer
+     * @throws IllegalArgumentException if capacity can't hold a batch or maxDelay is not positive
+     */
+    public WriteBehindBuffer(Class<?> persistType, DbHibernate dbac, int batchSize, Duration maxDelay, int capacity) {
+        if (batchSize < 1 || capacity < batchSize) {
+            throw new IllegalArgumentException("capacity must at least hold one batch");
+        }
+        if (maxDelay.isNegative() || maxDelay.isZero()) {
+            throw new IllegalArgumentException("maxDelay must be positive");
+        }
+        dbHibernate = dbac;
+        dao = new DaoHibernate<>(persistType, dbac);
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        util = dbac.getSessionFactory().getPersistenceUnitUtil();
+        // without handlers, dropped objects must at least be logged
+        String entity = persistType.getSimpleName();
+        staleHandler = obj -> logger.error("write behind buffer dropped 1 stale {} object", entity);
+        failureHandler = (objects, ex) -> {
+            if (!objects.isEmpty()) {
+                logger.error("write behind buffer dropped {} {} objects of a rolled back batch",
+                        objects.size(), entity, ex);
+            }
+        };
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "easyHibernate-writeBehind-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long delay = maxDelay.toNanos();
+        flusher.scheduleWithFixedDelay(this::writeQuietly, delay, delay, TimeUnit.NANOSECONDS);
+        dbac.onClose(closeHook);
+    }
+
+    /**
+     * put an object into the buffer, replacing an unwritten object with the same id.
+     * Blocks while the buffer is full.
+     *
+     * @param obj object to be saved
+     */
+    public void save(PersistType obj) {
+        Object id = util.getIdentifier(obj);
+        Object key = id != null ? id : new Identity(obj);
+        lock.lock();
+        try {
+            while (!closed && pending.size() >= capacity && !pending.containsKey(key)) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                throw new IllegalStateException("write behind buffer is closed");
+            }
+            pending.put(key, obj);
+            if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+                flusher.execute(this::writeQuietly);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * write all buffered objects now and wait until they are written.
+     * Does nothing after close, which writes all buffered objects.
+     */
+    public void flush() {
+        if (closed) {
+            return;
+        }
+        Future<?> done;
+        try {
+            done = flusher.submit(this::writePending);
+        } catch (RejectedExecutionException ex) {
+            // closed concurrently, close writes the rest
+            return;
+        }
+        try {
+            done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("flushing write behind buffer failed", ex.getCause());
+        }
+    }
+
+    /**
+     * @return number of objects waiting to be written
+     */
+    public int getPending() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * set handler for objects that could not be written, because they were changed by another
+     * thread or process. The handler gets the refreshed object and is called in the background thread.
+     * By default, stale objects are logged as error, setting a handler replaces this logging.
+     *
+     * @param staleHandler called for every stale object
+     */
+    public void setStaleHandler(Consumer<? super PersistType> staleHandler) {
+        this.staleHandler = staleHandler;
+    }
+
+    /**
+     * set handler for batches that were rolled back. The exception is null, if the batch was rolled
+     * back because of a stale object. The handler is called in the background thread.
+     * By default, failed batches are logged as error, setting a handler replaces this logging.
+     *
+     * @param failureHandler called with the objects that were not written and the cause
+     */
+    public void setFailureHandler(BiConsumer<List<PersistType>, RuntimeException> failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * write all buffered objects and stop the background thread. Is called automatically
+     * by {@link DbHibernate#closeDatabase()}.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dbHibernate.removeOnClose(closeHook);
+        flusher.execute(this::writeQuietly);
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * write buffered objects in the background thread. Nothing may escape, because an exception
+     * would cancel the periodic flush.
+     */
+    private void writeQuietly() {
+        try {
+            writePending();
+        } catch (Throwable ex) {
+            logger.error("writing buffered objects failed", ex);
+        }
+    }
+
+    /**
+     * take all buffered objects and write them in batches, each in its own transaction.
+     * Runs in the background thread.
+     */
+    private void writePending() {
+        List<PersistType> objects;
+        lock.lock();
+        try {
+            flushRequested.set(false);
+            if (pending.isEmpty()) {
+                return;
+            }
+            objects = new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            for (int from = 0; from < objects.size(); from += batchSize) {
+                writeBatch(objects.subList(from, Math.min(from + batchSize, objects.size())));
+            }
+        } finally {
+            dbHibernate.closeSession();
+        }
+    }
+
+    /**
+     * write one batch in its own transaction and report stale objects and failures
+     *
+     * @param batch objects to be written
+     */
+    private void writeBatch(List<PersistType> batch) {
+        BatchResult<PersistType> result;
+        try {
+            result = dao.saveAll(batch, batchSize, 1).get(0);
+        } catch (RuntimeException rex) {
+            report(() -> failureHandler.accept(new ArrayList<>(batch), rex));
+            return;
+        }
+        result.getStale().forEach(obj -> report(() -> staleHandler.accept(obj)));
+        if (result.isRolledBack()) {
+            List<PersistType> unwritten = new ArrayList<>(batch);
+            unwritten.removeAll(result.getStale());
+            report(() -> failureHandler.accept(unwritten, null));
+        }
+    }
+
+    /**
+     * call a handler, its exceptions must not stop the background thread
+     *
+     * @param call handler call
+     */
+    private static void report(Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException ex) {
+            logger.error("write behind handler failed", ex);
+        }
+    }
+
+    /**
+     * key of new objects that have no id yet, compared by identity
+     */
+    private static final class Identity {
+        private final Object obj;
+
+        Identity(Object obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Identity && ((Identity) other).obj == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(obj);
+        }
+    }
+}